@@ -0,0 +1,23 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后删除 prefix + key 对应的缓存
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface HmdpCacheEvict {
+
+    String prefix();
+
+    /**
+     * key的SpEL表达式，为空时使用第一个参数
+     */
+    String key() default "";
+}
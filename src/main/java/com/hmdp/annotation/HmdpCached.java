@@ -0,0 +1,37 @@
+package com.hmdp.annotation;
+
+import com.hmdp.utils.CacheStrategy;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 声明式缓存：方法返回值按 prefix + key 缓存，由CacheClient按指定策略读写。
+ * 方法体就是回源查询数据库的逻辑，返回null表示数据不存在。
+ * 返回值类型就是缓存反序列化的类型，不支持泛型集合。
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface HmdpCached {
+
+    /**
+     * key前缀，例如 RedisConstants.CACHE_SHOP_KEY
+     */
+    String prefix();
+
+    /**
+     * key的SpEL表达式，例如 "#id"、"#shop.id"。为空时使用第一个参数
+     */
+    String key() default "";
+
+    long ttl() default 30L;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+}
@@ -0,0 +1,115 @@
+package com.hmdp.aspect;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.annotation.HmdpCacheEvict;
+import com.hmdp.annotation.HmdpCached;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * HmdpCached / HmdpCacheEvict 的切面。
+ * 每个方法的key解析器只构建一次：简单的 "#参数名" 直接按下标取参数，
+ * 其他表达式编译成字节码（SpelCompilerMode.IMMEDIATE），之后每次调用只做一次Map查找。
+ */
+@Slf4j
+@Aspect
+@Component
+public class CacheAspect {
+
+    private static final SpelExpressionParser PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.IMMEDIATE, CacheAspect.class.getClassLoader()));
+
+    private static final ParameterNameDiscoverer NAME_DISCOVERER = new DefaultParameterNameDiscoverer();
+
+    private final Map<Method, Function<Object[], Object>> keyResolvers = new ConcurrentHashMap<>();
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Around("@annotation(cached)")
+    @SuppressWarnings("unchecked")
+    public Object cached(ProceedingJoinPoint joinPoint, HmdpCached cached) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object id = resolveKey(method, cached.key(), joinPoint.getArgs());
+        if (id == null) {
+            return proceed(joinPoint);
+        }
+        Class<Object> type = (Class<Object>) method.getReturnType();
+        return cacheClient.query(cached.strategy(), cached.prefix(), id, type,
+                ignored -> proceed(joinPoint), cached.ttl(), cached.unit());
+    }
+
+    @Around("@annotation(evict)")
+    public Object evict(ProceedingJoinPoint joinPoint, HmdpCacheEvict evict) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object id = resolveKey(method, evict.key(), joinPoint.getArgs());
+        Object result = proceed(joinPoint);
+        if (id != null) {
+            // 在事务中时，提交之后才会真正删除
+            cacheInvalidator.evict(evict.prefix() + id);
+        }
+        return result;
+    }
+
+    private Object resolveKey(Method method, String key, Object[] args) {
+        return keyResolvers.computeIfAbsent(method, m -> buildResolver(m, key)).apply(args);
+    }
+
+    private Function<Object[], Object> buildResolver(Method method, String key) {
+        if (StrUtil.isBlank(key)) {
+            return args -> args.length == 0 ? null : args[0];
+        }
+        String[] names = NAME_DISCOVERER.getParameterNames(method);
+        if (names == null) {
+            throw new IllegalStateException("无法获取方法参数名：" + method);
+        }
+        // "#id" 这种直接引用参数的表达式，不经过SpEL
+        String name = key.startsWith("#") ? key.substring(1) : null;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                int index = i;
+                return args -> args[index];
+            }
+        }
+        Expression expression = PARSER.parseExpression(key);
+        return args -> {
+            StandardEvaluationContext context = new StandardEvaluationContext();
+            for (int i = 0; i < names.length; i++) {
+                context.setVariable(names[i], args[i]);
+            }
+            return expression.getValue(context);
+        };
+    }
+
+    private Object proceed(ProceedingJoinPoint joinPoint) {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
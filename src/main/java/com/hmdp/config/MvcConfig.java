@@ -2,6 +2,7 @@ package com.hmdp.config;
 
 import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.utils.RedisCircuitBreaker;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -20,6 +21,9 @@ public class MvcConfig implements WebMvcConfigurer {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
     /**
      * RefreshTokenInterceptor拦截所有请求，能从前端获取到用户信息，则刷新。
      * LoginInterceptor在之后，拦截部分请求，做已登录验证。
@@ -31,12 +35,18 @@ public class MvcConfig implements WebMvcConfigurer {
                 "/user/login",
                 "/user/code",
                 "/blog/hot",
+                "/blog/likes/**",
                 "/shop/**",
                 "/shop-type/**",
                 "/voucher/**",
                 "/upload/**"
         ).order(1);
+        // 商铺批量导入在/shop/**下，但需要登录
+        registry.addInterceptor(new LoginInterceptor()).addPathPatterns(
+                "/shop/import",
+                "/shop/import/**"
+        ).order(1);
 
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate, redisCircuitBreaker)).order(0);
     }
 }
@@ -0,0 +1,39 @@
+package com.hmdp.config;
+
+import com.hmdp.index.ShopIndexManager;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_EVICT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.HOT_KEY_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_CHANGED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_CHANGED_CHANNEL;
+
+/**
+ * Redis发布订阅，用于节点之间同步本地缓存相关的信息
+ */
+@Configuration
+public class RedisPubSubConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       HotKeyDetector hotKeyDetector,
+                                                                       CacheInvalidator cacheInvalidator,
+                                                                       ShopIndexManager shopIndexManager,
+                                                                       IShopTypeService shopTypeService) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(hotKeyDetector, new ChannelTopic(HOT_KEY_CHANNEL));
+        container.addMessageListener(cacheInvalidator, new ChannelTopic(CACHE_EVICT_CHANNEL));
+        container.addMessageListener(shopIndexManager, new ChannelTopic(SHOP_CHANGED_CHANNEL));
+        container.addMessageListener((message, pattern) -> shopTypeService.reloadSnapshot(),
+                new ChannelTopic(SHOP_TYPE_CHANGED_CHANNEL));
+        return container;
+    }
+}
@@ -1,15 +1,19 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.ImportProgress;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopDetailService;
+import com.hmdp.service.IShopImportService;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * <p>
@@ -26,16 +30,38 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private IShopImportService shopImportService;
+
+    @Resource
+    private IShopDetailService shopDetailService;
+
     /**
-     * 根据id查询商铺信息
+     * 根据id查询商铺信息。
+     * 响应带ETag和Last-Modified（来自tb_shop.update_time），客户端的副本仍是最新时返回304
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
+    public Result queryShopById(@PathVariable("id") Long id, WebRequest request) {
+        Long lastModified = shopService.queryLastModified(id);
+        if (lastModified != null && request.checkNotModified("\"" + id + "-" + lastModified + "\"", lastModified)) {
+            // 已经设置了304、ETag和Last-Modified
+            return null;
+        }
         return shopService.queryById(id);
     }
 
+    /**
+     * 商铺页面数据：商铺信息、优惠券、热门笔记，一次返回
+     * @param id 商铺id
+     * @return 超时的部分不返回，列在missing中
+     */
+    @GetMapping("/{id}/detail")
+    public Result queryShopDetail(@PathVariable("id") Long id) {
+        return shopDetailService.queryShopDetail(id);
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -44,7 +70,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
+        shopService.saveShop(shop);
         // 返回店铺id
         return Result.ok(shop.getId());
     }
@@ -60,41 +86,101 @@ public class ShopController {
         return shopService.update(shop);
     }
 
+    /**
+     * 批量导入商铺，请求体为NDJSON（每行一个商铺的JSON）或带表头的CSV，按Content-Type区分。
+     * 请求体写入临时文件后立即返回，导入在后台进行。需要登录，请求体大小有上限
+     * @return 导入任务id，用于查询进度
+     */
+    @PostMapping("/import")
+    public Result importShops(HttpServletRequest request) throws IOException {
+        String contentType = request.getContentType();
+        boolean csv = contentType != null && contentType.toLowerCase().contains("csv");
+        return shopImportService.submit(request.getInputStream(), request.getContentLengthLong(), csv);
+    }
+
+    /**
+     * 查询导入进度
+     * @param taskId 导入任务id
+     * @return 已读取、已写入、失败的行数和吞吐量
+     */
+    @GetMapping("/import/{taskId}")
+    public Result queryImportProgress(@PathVariable("taskId") String taskId) {
+        ImportProgress progress = shopImportService.getProgress(taskId);
+        if (progress == null) {
+            return Result.fail("导入任务不存在！");
+        }
+        return Result.ok(progress);
+    }
+
     /**
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
-     * @param current 页码
-     * @return 商铺列表
+     * @param current 页码，默认第1页，返回商铺列表
+     * @param cursor 传入时按游标查询（第一页传空字符串，之后传上一页返回的next），返回列表和下一页的游标，忽略current
+     * @param sortBy 排序方式，sold：按销量，score：按评分，不传按id
+     * @param x 经度，和y同时传入时按距离由近到远排序
+     * @param y 纬度
+     * @return 商铺列表；游标查询时返回列表和下一页的游标
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "sortBy", required = false) String sortBy,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByType(typeId, cursor == null ? current : null, cursor, sortBy, x, y);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
-     * @param current 页码
-     * @return 商铺列表
+     * @param current 页码，默认第1页，返回商铺列表
+     * @param cursor 传入时按游标查询（第一页传空字符串，之后传上一页返回的next），返回列表和下一页的游标，忽略current
+     * @return 商铺列表；游标查询时返回列表和下一页的游标
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByName(name, cursor == null ? current : null, cursor);
+    }
+
+    /**
+     * 商铺名称联想，支持拼音首字母
+     * @param prefix 已输入的内容
+     * @param limit 返回条数，最多10条
+     * @return 商铺id和名称，按销量、评分排序
+     */
+    @GetMapping("/suggest")
+    public Result suggest(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "limit", defaultValue = "10") Integer limit
+    ) {
+        return shopService.suggest(prefix, limit);
+    }
+
+    /**
+     * 多条件筛选商铺，同一条件的多个取值满足其一即可，不同条件需要同时满足
+     * @param typeIds 商铺类型，可以传多个
+     * @param areas 商圈，可以传多个
+     * @param priceBands 价格区间：0：50以下，1：50~100，2：100~200，3：200~500，4：500以上，可以传多个
+     * @param minScore 最低评分，乘10后的值，例如45
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标，按id排序
+     */
+    @GetMapping("/filter")
+    public Result filterShops(
+            @RequestParam(value = "typeId", required = false) List<Long> typeIds,
+            @RequestParam(value = "area", required = false) List<String> areas,
+            @RequestParam(value = "priceBand", required = false) List<Integer> priceBands,
+            @RequestParam(value = "minScore", required = false) Integer minScore,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.filterShops(typeIds, areas, priceBands, minScore, cursor);
     }
 }
@@ -0,0 +1,21 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 笔记的点赞信息
+ */
+@Data
+public class BlogLikes {
+    /**
+     * 当前用户是否点赞过，未登录时为false
+     */
+    private Boolean isLike;
+    private Long liked;
+    /**
+     * 最早点赞的几个用户
+     */
+    private List<UserDTO> likers;
+}
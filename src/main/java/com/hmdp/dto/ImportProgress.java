@@ -0,0 +1,36 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量导入的进度，每处理完一批生成一个新的对象替换旧的，读取时不需要加锁
+ */
+@Data
+public class ImportProgress {
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    private String taskId;
+    private String status;
+    /**
+     * 已读取的行数
+     */
+    private long read;
+    private long inserted;
+    /**
+     * 格式错误或者缺少必填字段的行数
+     */
+    private long failed;
+    /**
+     * 前若干条错误，包括行号
+     */
+    private List<String> errors;
+    private long elapsedMillis;
+    /**
+     * 每秒写入的商铺数
+     */
+    private long rowsPerSecond;
+}
@@ -0,0 +1,25 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 商铺页面需要的全部数据，一次请求返回
+ */
+@Data
+public class ShopDetail {
+    private Shop shop;
+    private List<Voucher> vouchers;
+    /**
+     * 点赞最多的几篇笔记
+     */
+    private List<Blog> blogs;
+    /**
+     * 超时或者失败、没有返回的部分：shop、vouchers、blogs，全部成功时为空
+     */
+    private List<String> missing;
+}
@@ -0,0 +1,22 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 商铺类型列表的不可变快照，更新时整体替换。
+ * body是序列化好的响应体，直接写给客户端，调用方不能修改其中的内容。
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    private final List<ShopType> types;
+    private final byte[] body;
+    /**
+     * 强ETag，响应体的MD5
+     */
+    private final String etag;
+}
@@ -0,0 +1,144 @@
+package com.hmdp.index;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * 压缩的倒排列表：id升序排列后，存相邻id的差值，再按varint编码（每字节7位，最高位表示后面还有字节）。
+ * 商铺id连续递增，差值通常只占1~2个字节，比long[]小4倍以上。
+ * 记录元素个数和最后一个id，新id比最后一个大时直接追加到末尾，均摊O(1)；启动时按id升序构建，全部走追加。
+ * 插入到中间或者删除时才解码后重新编码。不是线程安全的，由所属索引的锁保护。
+ */
+final class PostingList {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int length;
+    private int size;
+    private long last;
+
+    /**
+     * 插入一个id
+     * @return false：已经存在
+     */
+    boolean add(long id) {
+        if (size == 0 || id > last) {
+            append(id);
+            return true;
+        }
+        if (id == last) {
+            return false;
+        }
+        long[] ids = toArray();
+        int index = Arrays.binarySearch(ids, id);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        long[] added = new long[ids.length + 1];
+        System.arraycopy(ids, 0, added, 0, index);
+        added[index] = id;
+        System.arraycopy(ids, index, added, index + 1, ids.length - index);
+        rebuild(added, added.length);
+        return true;
+    }
+
+    /**
+     * 删除一个id
+     * @return false：不存在
+     */
+    boolean remove(long id) {
+        if (size == 0 || id > last) {
+            return false;
+        }
+        long[] ids = toArray();
+        int index = Arrays.binarySearch(ids, id);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(ids, index + 1, ids, index, ids.length - index - 1);
+        rebuild(ids, ids.length - 1);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 占用的字节数，包括追加预留的空间
+     */
+    int sizeInBytes() {
+        return bytes.length;
+    }
+
+    /**
+     * 按升序遍历，不创建数组
+     */
+    void forEach(LongConsumer action) {
+        int pos = 0;
+        long prev = 0;
+        for (int i = 0; i < size; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[pos++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            prev += delta;
+            action.accept(prev);
+        }
+    }
+
+    long[] toArray() {
+        long[] ids = new long[size];
+        int[] i = {0};
+        forEach(id -> ids[i[0]++] = id);
+        return ids;
+    }
+
+    /**
+     * 释放追加预留的空间，批量构建完成后调用
+     */
+    void trim() {
+        if (bytes.length > length) {
+            bytes = Arrays.copyOf(bytes, Math.max(length, 1));
+        }
+    }
+
+    /**
+     * @param ids 升序、无重复的id
+     * @param n 有效元素个数
+     */
+    private void rebuild(long[] ids, int n) {
+        bytes = new byte[Math.max(INITIAL_CAPACITY, n * 2)];
+        length = 0;
+        size = 0;
+        last = 0;
+        for (int i = 0; i < n; i++) {
+            append(ids[i]);
+        }
+    }
+
+    private void append(long id) {
+        long value = id - last;
+        if (length + 10 > bytes.length) {
+            // 一个varint最多10个字节，空间不够时翻倍
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 10));
+        }
+        while ((value & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+        last = id;
+        size++;
+    }
+}
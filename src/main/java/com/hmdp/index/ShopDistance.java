@@ -0,0 +1,14 @@
+package com.hmdp.index;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 附近查询的结果：商铺id和距离（米）
+ */
+@Data
+@AllArgsConstructor
+public class ShopDistance {
+    private Long shopId;
+    private Double distance;
+}
@@ -0,0 +1,248 @@
+package com.hmdp.index;
+
+import cn.hutool.core.collection.CollUtil;
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商铺多条件筛选的位图索引：类型、商圈、价格区间、评分，每个取值一个压缩位图（RoaringBitmap），位图中存商铺id。
+ * 筛选时同一个条件的多个取值做OR，不同条件之间做AND，结果位图按id有序，直接按id游标分页。
+ * tb_shop的id是自增主键，按int存入位图。
+ */
+@Component
+public class ShopFilterIndex implements ShopIndex {
+
+    /**
+     * 价格区间的上界（不含），avg_price小于50为第0档，50~100为第1档，以此类推，500以上为第4档
+     */
+    private static final long[] PRICE_BOUNDS = {50, 100, 200, 500};
+
+    private final RoaringBitmap all = new RoaringBitmap();
+    private final Map<Long, RoaringBitmap> types = new HashMap<>();
+    private final Map<String, RoaringBitmap> areas = new HashMap<>();
+    private final Map<Integer, RoaringBitmap> priceBands = new HashMap<>();
+    private final Map<Integer, RoaringBitmap> scores = new HashMap<>();
+    /**
+     * shopId -> 建索引时的属性，用于更新和删除
+     */
+    private final Map<Integer, Attrs> docs = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ShopFilterIndex(MeterRegistry meterRegistry) {
+        Gauge.builder("hmdp.shop.index.filter.bitmaps", this, ShopFilterIndex::bitmaps).register(meterRegistry);
+        Gauge.builder("hmdp.shop.index.filter.bytes", this, ShopFilterIndex::sizeInBytes)
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    @Override
+    public void upsert(Shop shop) {
+        int id = Math.toIntExact(shop.getId());
+        Attrs attrs = new Attrs(shop.getTypeId(), shop.getArea(),
+                shop.getAvgPrice() == null ? null : priceBand(shop.getAvgPrice()), shop.getScore());
+        lock.writeLock().lock();
+        try {
+            Attrs old = docs.put(id, attrs);
+            if (attrs.equals(old)) {
+                return;
+            }
+            if (old != null) {
+                old.unindex(id);
+            }
+            all.add(id);
+            attrs.index(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Long shopId) {
+        int id = Math.toIntExact(shopId);
+        lock.writeLock().lock();
+        try {
+            Attrs old = docs.remove(id);
+            if (old != null) {
+                old.unindex(id);
+                all.remove(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 多条件筛选。条件为空表示不限
+     * @param typeIds 类型，满足其一
+     * @param areaNames 商圈，满足其一
+     * @param bands 价格区间，见PRICE_BOUNDS，满足其一
+     * @param minScore 最低评分（乘10后的值）
+     * @param afterId 上一页最后一家商铺的id，第一页传0
+     * @param limit 最多返回多少个
+     * @return 商铺id，升序
+     */
+    public List<Long> filter(Collection<Long> typeIds, Collection<String> areaNames, Collection<Integer> bands,
+                             Integer minScore, long afterId, int limit) {
+        RoaringBitmap result;
+        lock.readLock().lock();
+        try {
+            List<RoaringBitmap> conditions = new ArrayList<>(4);
+            if (CollUtil.isNotEmpty(typeIds)) {
+                conditions.add(union(types, typeIds));
+            }
+            if (CollUtil.isNotEmpty(areaNames)) {
+                conditions.add(union(areas, areaNames));
+            }
+            if (CollUtil.isNotEmpty(bands)) {
+                conditions.add(union(priceBands, bands));
+            }
+            if (minScore != null) {
+                List<Integer> atLeast = new ArrayList<>();
+                scores.keySet().forEach(score -> {
+                    if (score >= minScore) {
+                        atLeast.add(score);
+                    }
+                });
+                conditions.add(union(scores, atLeast));
+            }
+            // 不同条件AND
+            result = conditions.isEmpty() ? all.clone()
+                    : FastAggregation.and(conditions.toArray(new RoaringBitmap[0]));
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 结果是新的位图，分页不需要持有锁
+        List<Long> ids = new ArrayList<>(limit);
+        PeekableIntIterator it = result.getIntIterator();
+        it.advanceIfNeeded(Math.toIntExact(afterId + 1));
+        while (it.hasNext() && ids.size() < limit) {
+            ids.add((long) it.next());
+        }
+        return ids;
+    }
+
+    public int bitmaps() {
+        lock.readLock().lock();
+        try {
+            return types.size() + areas.size() + priceBands.size() + scores.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long sizeInBytes() {
+        lock.readLock().lock();
+        try {
+            return all.getSizeInBytes() + sizeInBytes(types) + sizeInBytes(areas)
+                    + sizeInBytes(priceBands) + sizeInBytes(scores);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 价格所在的区间
+     */
+    public static int priceBand(long avgPrice) {
+        int band = 0;
+        while (band < PRICE_BOUNDS.length && avgPrice >= PRICE_BOUNDS[band]) {
+            band++;
+        }
+        return band;
+    }
+
+    private static long sizeInBytes(Map<?, RoaringBitmap> column) {
+        long bytes = 0;
+        for (RoaringBitmap bitmap : column.values()) {
+            bytes += bitmap.getSizeInBytes();
+        }
+        return bytes;
+    }
+
+    private static <K> RoaringBitmap union(Map<K, RoaringBitmap> column, Collection<K> values) {
+        List<RoaringBitmap> bitmaps = new ArrayList<>(values.size());
+        for (K value : values) {
+            RoaringBitmap bitmap = column.get(value);
+            if (bitmap != null) {
+                bitmaps.add(bitmap);
+            }
+        }
+        return bitmaps.isEmpty() ? new RoaringBitmap() : FastAggregation.or(bitmaps.iterator());
+    }
+
+    private static <K> void add(Map<K, RoaringBitmap> column, K value, int id) {
+        if (value != null) {
+            column.computeIfAbsent(value, k -> new RoaringBitmap()).add(id);
+        }
+    }
+
+    private static <K> void remove(Map<K, RoaringBitmap> column, K value, int id) {
+        if (value == null) {
+            return;
+        }
+        RoaringBitmap bitmap = column.get(value);
+        if (bitmap == null) {
+            return;
+        }
+        bitmap.remove(id);
+        if (bitmap.isEmpty()) {
+            column.remove(value);
+        }
+    }
+
+    private final class Attrs {
+        private final Long typeId;
+        private final String area;
+        private final Integer priceBand;
+        private final Integer score;
+
+        Attrs(Long typeId, String area, Integer priceBand, Integer score) {
+            this.typeId = typeId;
+            this.area = area;
+            this.priceBand = priceBand;
+            this.score = score;
+        }
+
+        void index(int id) {
+            add(types, typeId, id);
+            add(areas, area, id);
+            add(priceBands, priceBand, id);
+            add(scores, score, id);
+        }
+
+        void unindex(int id) {
+            remove(types, typeId, id);
+            remove(areas, area, id);
+            remove(priceBands, priceBand, id);
+            remove(scores, score, id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Attrs)) {
+                return false;
+            }
+            Attrs other = (Attrs) o;
+            return Objects.equals(typeId, other.typeId) && Objects.equals(area, other.area)
+                    && Objects.equals(priceBand, other.priceBand) && Objects.equals(score, other.score);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(typeId, area, priceBand, score);
+        }
+    }
+}
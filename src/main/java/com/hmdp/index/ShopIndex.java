@@ -0,0 +1,27 @@
+package com.hmdp.index;
+
+import com.hmdp.entity.Shop;
+
+/**
+ * 节点内存中的商铺索引。
+ * 启动时由ShopIndexManager从tb_shop全量加载，之后商铺新增、修改时增量更新。
+ * 实现类需要自己保证并发安全：读多写少，查询不能被阻塞太久。
+ */
+public interface ShopIndex {
+
+    /**
+     * 新增或更新一家商铺，传入的是数据库中的完整记录
+     */
+    void upsert(Shop shop);
+
+    /**
+     * 删除一家商铺
+     */
+    void remove(Long shopId);
+
+    /**
+     * 启动时全量构建完成后调用，释放构建时预留的空间
+     */
+    default void trim() {
+    }
+}
@@ -0,0 +1,186 @@
+package com.hmdp.index;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.TransactionUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SHOP_CHANGED_CHANNEL;
+
+/**
+ * 维护全部的内存商铺索引：
+ * 1. 启动时按主键分页读取tb_shop，全量构建，id升序插入，倒排列表都是追加；
+ * 2. 本节点修改商铺后，事务提交时重新读取该商铺，增量更新，并广播给其他节点；
+ * 3. 收到其他节点的广播，同样重新读取后更新；
+ * 4. 下单带来的销量变化很频繁，先记下变化的商铺，定时批量重新读取并广播（联想按销量排序，允许短暂滞后）。
+ * 直接使用ShopMapper而不是IShopService，避免和商铺服务循环依赖。
+ */
+@Slf4j
+@Component
+public class ShopIndexManager implements ApplicationRunner, MessageListener {
+
+    private static final int PAGE_SIZE = 1000;
+
+    private final String nodeId = UUID.fastUUID().toString(true);
+
+    @Resource
+    private List<ShopIndex> indexes;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Resource
+    private ShopSpatialIndex shopSpatialIndex;
+
+    /**
+     * 销量变化、还没有刷新到索引的商铺
+     */
+    private final Set<Long> soldChanged = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long begin = System.currentTimeMillis();
+        long lastId = 0;
+        while (true) {
+            List<Shop> page = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId).orderByAsc("id").last("LIMIT " + PAGE_SIZE));
+            if (page.isEmpty()) {
+                break;
+            }
+            page.forEach(shop -> indexes.forEach(index -> index.upsert(shop)));
+            lastId = page.get(page.size() - 1).getId();
+        }
+        indexes.forEach(ShopIndex::trim);
+        int shops = shopSpatialIndex.size();
+        long bytes = shopSpatialIndex.estimatedBytes();
+        log.info("商铺索引构建完成，商铺 {} 家，空间索引约 {} 字节（每家 {} 字节），耗时 {} ms",
+                shops, bytes, shops == 0 ? 0 : bytes / shops, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 商铺新增或修改后调用，有事务时在提交后生效
+     */
+    public void onShopChanged(Long shopId) {
+        TransactionUtils.afterCommit(() -> {
+            reload(shopId);
+            JSONObject message = new JSONObject();
+            message.set("node", nodeId);
+            message.set("id", shopId);
+            String json = message.toString();
+            redisCircuitBreaker.execute(() -> stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, json));
+        });
+    }
+
+    /**
+     * 商铺销量变化（下单）后调用，只记录商铺id，由refreshSold批量更新
+     */
+    public void onShopSold(Long shopId) {
+        soldChanged.add(shopId);
+    }
+
+    /**
+     * 批量重新读取销量变化的商铺，更新本节点的索引，并广播给其他节点
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop.index-sold-refresh-ms:10000}")
+    public void refreshSold() {
+        if (soldChanged.isEmpty()) {
+            return;
+        }
+        List<Long> shopIds = new ArrayList<>(soldChanged.size());
+        Iterator<Long> iterator = soldChanged.iterator();
+        while (iterator.hasNext()) {
+            shopIds.add(iterator.next());
+            iterator.remove();
+        }
+        try {
+            reload(shopIds);
+        } catch (Exception e) {
+            // 下次重试
+            soldChanged.addAll(shopIds);
+            log.warn("刷新商铺销量索引失败，商铺 {} 家：{}", shopIds.size(), e.getMessage());
+            return;
+        }
+        JSONObject message = new JSONObject();
+        message.set("node", nodeId);
+        message.set("ids", shopIds);
+        String json = message.toString();
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, json));
+    }
+
+    /**
+     * 批量导入的商铺已经入库，直接用这批数据更新本节点，其他节点按id批量重新读取
+     */
+    public void onShopsImported(List<Shop> shops) {
+        shops.forEach(shop -> indexes.forEach(index -> index.upsert(shop)));
+        JSONObject message = new JSONObject();
+        message.set("node", nodeId);
+        message.set("ids", shops.stream().map(Shop::getId).collect(Collectors.toList()));
+        String json = message.toString();
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, json));
+    }
+
+    /**
+     * 其他节点修改了商铺
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        JSONObject body = JSONUtil.parseObj(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (nodeId.equals(body.getStr("node"))) {
+            return;
+        }
+        JSONArray ids = body.getJSONArray("ids");
+        if (ids != null) {
+            reload(ids.toList(Long.class));
+            return;
+        }
+        reload(body.getLong("id"));
+    }
+
+    private void reload(Long shopId) {
+        reload(Collections.singletonList(shopId));
+    }
+
+    private void reload(List<Long> shopIds) {
+        Map<Long, Shop> shops = shopMapper.selectBatchIds(shopIds).stream()
+                .collect(Collectors.toMap(Shop::getId, Function.identity()));
+        for (Long shopId : shopIds) {
+            Shop shop = shops.get(shopId);
+            if (shop == null) {
+                indexes.forEach(index -> index.remove(shopId));
+            } else {
+                indexes.forEach(index -> index.upsert(shop));
+            }
+        }
+    }
+}
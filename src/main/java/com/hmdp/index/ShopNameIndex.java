@@ -0,0 +1,250 @@
+package com.hmdp.index;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商铺名称和商圈的n-gram倒排索引，代替 LIKE '%name%' 的全表扫描。
+ * 文本按字符切成单字和相邻两字（中文没有空格分词，二元切分足够覆盖子串查询），
+ * 每个词项对应一个压缩的倒排列表（PostingList）。
+ * 查询时合并各个词项的倒排列表，按匹配程度分档，同档内按评分排序。
+ */
+@Component
+public class ShopNameIndex implements ShopIndex {
+
+    /**
+     * 至少命中一半的查询词项才算匹配
+     */
+    private static final double MIN_MATCH_RATIO = 0.5;
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final Map<Long, Doc> docs = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ShopNameIndex(MeterRegistry meterRegistry) {
+        Gauge.builder("hmdp.shop.index.name.terms", this, ShopNameIndex::terms).register(meterRegistry);
+        Gauge.builder("hmdp.shop.index.name.bytes", this, ShopNameIndex::postingBytes)
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    @Override
+    public void upsert(Shop shop) {
+        Doc doc = new Doc(normalize(shop.getName()), normalize(shop.getArea()),
+                shop.getScore() == null ? 0 : shop.getScore());
+        lock.writeLock().lock();
+        try {
+            Doc old = docs.put(shop.getId(), doc);
+            Set<String> oldTerms = old == null ? Collections.emptySet() : old.terms();
+            Set<String> newTerms = doc.terms();
+            // 只改动有变化的词项
+            for (String term : oldTerms) {
+                if (!newTerms.contains(term)) {
+                    removePosting(term, shop.getId());
+                }
+            }
+            for (String term : newTerms) {
+                if (!oldTerms.contains(term)) {
+                    postings.computeIfAbsent(term, k -> new PostingList()).add(shop.getId());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Long shopId) {
+        lock.writeLock().lock();
+        try {
+            Doc old = docs.remove(shopId);
+            if (old != null) {
+                old.terms().forEach(term -> removePosting(term, shopId));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void trim() {
+        lock.writeLock().lock();
+        try {
+            postings.values().forEach(PostingList::trim);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 搜索商铺
+     * @param keyword 关键字
+     * @param limit 最多返回多少条
+     * @return 商铺id，按匹配程度、评分降序
+     */
+    public List<Long> search(String keyword, int limit) {
+        String query = normalize(keyword);
+        if (query.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Set<String> terms = grams(query);
+        lock.readLock().lock();
+        try {
+            // 1.合并倒排列表，统计每个商铺命中了几个词项
+            Map<Long, Integer> hits = new HashMap<>();
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list != null) {
+                    list.forEach(id -> hits.merge(id, 1, Integer::sum));
+                }
+            }
+            // 2.过滤、打分
+            int minHits = (int) Math.ceil(terms.size() * MIN_MATCH_RATIO);
+            List<Match> matches = new ArrayList<>();
+            hits.forEach((id, count) -> {
+                if (count < minHits) {
+                    return;
+                }
+                Doc doc = docs.get(id);
+                matches.add(new Match(id, doc.quality(query), (double) count / terms.size(), doc.score));
+            });
+            // 3.排序：匹配档位 > 命中比例 > 评分 > id
+            matches.sort(Comparator.comparingInt((Match m) -> m.quality).reversed()
+                    .thenComparing(Comparator.comparingDouble((Match m) -> m.ratio).reversed())
+                    .thenComparing(Comparator.comparingInt((Match m) -> m.score).reversed())
+                    .thenComparingLong(m -> m.id));
+            List<Long> ids = new ArrayList<>(Math.min(limit, matches.size()));
+            for (int i = 0; i < matches.size() && i < limit; i++) {
+                ids.add(matches.get(i).id);
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int terms() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 倒排列表压缩后的总字节数
+     */
+    public long postingBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (PostingList list : postings.values()) {
+                bytes += list.sizeInBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removePosting(String term, Long shopId) {
+        PostingList list = postings.get(term);
+        if (list != null && list.remove(shopId) && list.isEmpty()) {
+            postings.remove(term);
+        }
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : StrUtil.cleanBlank(text).toLowerCase();
+    }
+
+    /**
+     * 切分词项：单字和相邻两字。查询只有一个字时用单字，否则只用两字词项
+     */
+    private static Set<String> grams(String query) {
+        Set<String> grams = new LinkedHashSet<>();
+        if (query.length() == 1) {
+            grams.add(query);
+            return grams;
+        }
+        for (int i = 0; i + 1 < query.length(); i++) {
+            grams.add(query.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    private static void index(String text, Set<String> terms) {
+        for (int i = 0; i < text.length(); i++) {
+            terms.add(text.substring(i, i + 1));
+            if (i + 1 < text.length()) {
+                terms.add(text.substring(i, i + 2));
+            }
+        }
+    }
+
+    private static final class Doc {
+        private final String name;
+        private final String area;
+        private final int score;
+
+        Doc(String name, String area, int score) {
+            this.name = name;
+            this.area = area;
+            this.score = score;
+        }
+
+        Set<String> terms() {
+            Set<String> terms = new LinkedHashSet<>();
+            index(name, terms);
+            index(area, terms);
+            return terms;
+        }
+
+        /**
+         * 匹配档位：名称相同 > 名称前缀 > 名称包含 > 商圈包含 > 部分词项命中
+         */
+        int quality(String query) {
+            if (name.equals(query)) {
+                return 4;
+            }
+            if (name.startsWith(query)) {
+                return 3;
+            }
+            if (name.contains(query)) {
+                return 2;
+            }
+            if (area.contains(query)) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    private static final class Match {
+        private final long id;
+        private final int quality;
+        private final double ratio;
+        private final int score;
+
+        Match(long id, int quality, double ratio, int score) {
+            this.id = id;
+            this.quality = quality;
+            this.ratio = ratio;
+            this.score = score;
+        }
+    }
+}
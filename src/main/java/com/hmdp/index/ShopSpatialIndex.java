@@ -0,0 +1,289 @@
+package com.hmdp.index;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商铺空间索引：按类型划分的经纬度网格，不需要访问Redis就能查询附近的商铺。
+ * 每个格子约 1km x 1km，格子内用基本类型数组存id和坐标，没有装箱对象。
+ * k近邻从中心格子一圈一圈向外扩展，扩展到的最近距离已经超过第k个结果时停止。
+ */
+@Component
+public class ShopSpatialIndex implements ShopIndex {
+
+    private static final double CELL_DEGREES = 0.01;
+    private static final double METERS_PER_DEGREE = 111_320D;
+    private static final double EARTH_RADIUS_METERS = 6_371_000D;
+
+    /**
+     * typeId -> 格子编号 -> 格子
+     */
+    private final Map<Long, Map<Long, Cell>> grids = new HashMap<>();
+    /**
+     * shopId -> 所在的类型和格子，用于更新和删除
+     */
+    private final Map<Long, Location> locations = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ShopSpatialIndex(MeterRegistry meterRegistry) {
+        Gauge.builder("hmdp.shop.index.spatial.shops", this, ShopSpatialIndex::size).register(meterRegistry);
+        Gauge.builder("hmdp.shop.index.spatial.bytes", this, ShopSpatialIndex::estimatedBytes)
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    @Override
+    public void upsert(Shop shop) {
+        if (shop.getX() == null || shop.getY() == null || shop.getTypeId() == null) {
+            remove(shop.getId());
+            return;
+        }
+        long cellKey = cellKey(shop.getX(), shop.getY());
+        lock.writeLock().lock();
+        try {
+            removeInternal(shop.getId());
+            grids.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                    .computeIfAbsent(cellKey, k -> new Cell())
+                    .add(shop.getId(), shop.getX(), shop.getY());
+            locations.put(shop.getId(), new Location(shop.getTypeId(), cellKey));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Long shopId) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(shopId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查询最近的k家商铺
+     * @param maxMeters 最大距离
+     * @return 按距离升序
+     */
+    public List<ShopDistance> nearest(Long typeId, double x, double y, int k, double maxMeters) {
+        lock.readLock().lock();
+        try {
+            Map<Long, Cell> grid = grids.get(typeId);
+            if (grid == null || k <= 0) {
+                return Collections.emptyList();
+            }
+            // 大顶堆，堆顶是当前第k近的。k来自请求的页码，不按k预分配，堆按实际找到的商铺数增长
+            PriorityQueue<ShopDistance> heap = new PriorityQueue<>(
+                    Comparator.comparingDouble(ShopDistance::getDistance).reversed());
+            int cx = cellIndex(x);
+            int cy = cellIndex(y);
+            double cellMeters = cellMeters(y);
+            int maxRing = (int) Math.ceil(maxMeters / cellMeters) + 1;
+            for (int r = 0; r <= maxRing; r++) {
+                // 第r圈的格子离查询点至少 (r-1) 个格子宽
+                if (heap.size() == k && (r - 1) * cellMeters > heap.peek().getDistance()) {
+                    break;
+                }
+                for (int dx = -r; dx <= r; dx++) {
+                    for (int dy = -r; dy <= r; dy++) {
+                        if (Math.max(Math.abs(dx), Math.abs(dy)) != r) {
+                            continue;
+                        }
+                        Cell cell = grid.get(pack(cx + dx, cy + dy));
+                        if (cell != null) {
+                            cell.collect(x, y, maxMeters, k, heap);
+                        }
+                    }
+                }
+            }
+            List<ShopDistance> result = new ArrayList<>(heap);
+            result.sort(Comparator.comparingDouble(ShopDistance::getDistance));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查询半径内的全部商铺，按距离升序
+     */
+    public List<ShopDistance> withinRadius(Long typeId, double x, double y, double meters) {
+        lock.readLock().lock();
+        try {
+            Map<Long, Cell> grid = grids.get(typeId);
+            if (grid == null) {
+                return Collections.emptyList();
+            }
+            int rx = (int) Math.ceil(meters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(y))) / CELL_DEGREES);
+            int ry = (int) Math.ceil(meters / METERS_PER_DEGREE / CELL_DEGREES);
+            int cx = cellIndex(x);
+            int cy = cellIndex(y);
+            List<ShopDistance> result = new ArrayList<>();
+            for (int i = cx - rx; i <= cx + rx; i++) {
+                for (int j = cy - ry; j <= cy + ry; j++) {
+                    Cell cell = grid.get(pack(i, j));
+                    if (cell != null) {
+                        cell.collect(x, y, meters, result);
+                    }
+                }
+            }
+            result.sort(Comparator.comparingDouble(ShopDistance::getDistance));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return locations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按对象布局估算的内存占用（64位JVM，开启压缩指针）：
+     * 格子里的数组按容量计算，每家商铺 8(id) + 8(x) + 8(y) 字节；
+     * locations中每家商铺一个HashMap节点(32) + Long键(16) + Location对象(24) + 桶引用(4)。
+     */
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Map<Long, Cell> grid : grids.values()) {
+                for (Cell cell : grid.values()) {
+                    // 格子对象(24) + 三个数组头(3 * 16) + 格子的HashMap节点和Long键(48)
+                    bytes += 24 + 3 * 16 + 48 + (long) cell.ids.length * 24;
+                }
+            }
+            bytes += (long) locations.size() * (32 + 16 + 24 + 4);
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeInternal(Long shopId) {
+        Location location = locations.remove(shopId);
+        if (location == null) {
+            return;
+        }
+        Map<Long, Cell> grid = grids.get(location.typeId);
+        Cell cell = grid.get(location.cellKey);
+        cell.remove(shopId);
+        if (cell.size == 0) {
+            grid.remove(location.cellKey);
+        }
+    }
+
+    private static long cellKey(double x, double y) {
+        return pack(cellIndex(x), cellIndex(y));
+    }
+
+    private static int cellIndex(double degrees) {
+        return (int) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    private static long pack(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 格子在该纬度下较短一边的长度（米）
+     */
+    private static double cellMeters(double y) {
+        return CELL_DEGREES * METERS_PER_DEGREE * Math.min(1D, Math.cos(Math.toRadians(y)));
+    }
+
+    static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double dLat = lat2 - lat1;
+        double dLon = Math.toRadians(x2 - x1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(a));
+    }
+
+    private static final class Location {
+        private final Long typeId;
+        private final long cellKey;
+
+        Location(Long typeId, long cellKey) {
+            this.typeId = typeId;
+            this.cellKey = cellKey;
+        }
+    }
+
+    private static final class Cell {
+        private long[] ids = new long[4];
+        private double[] xs = new double[4];
+        private double[] ys = new double[4];
+        private int size;
+
+        void add(long id, double x, double y) {
+            if (size == ids.length) {
+                int capacity = size << 1;
+                ids = Arrays.copyOf(ids, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        void remove(long id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    // 用最后一个元素填补空位
+                    size--;
+                    ids[i] = ids[size];
+                    xs[i] = xs[size];
+                    ys[i] = ys[size];
+                    return;
+                }
+            }
+        }
+
+        void collect(double x, double y, double maxMeters, int k, PriorityQueue<ShopDistance> heap) {
+            for (int i = 0; i < size; i++) {
+                double d = distance(x, y, xs[i], ys[i]);
+                if (d > maxMeters) {
+                    continue;
+                }
+                if (heap.size() < k) {
+                    heap.offer(new ShopDistance(ids[i], d));
+                } else if (d < heap.peek().getDistance()) {
+                    heap.poll();
+                    heap.offer(new ShopDistance(ids[i], d));
+                }
+            }
+        }
+
+        void collect(double x, double y, double maxMeters, List<ShopDistance> result) {
+            for (int i = 0; i < size; i++) {
+                double d = distance(x, y, xs[i], ys[i]);
+                if (d <= maxMeters) {
+                    result.add(new ShopDistance(ids[i], d));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.hmdp.index;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.extra.pinyin.PinyinUtil;
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商铺名称联想：前缀树，每家商铺插入两个key，名称本身和名称的拼音首字母（海底捞 -> hdl）。
+ * 每个节点缓存以该节点为前缀的前N名商铺（销量优先，其次评分），查询只需要沿着前缀走到节点，直接返回缓存的结果。
+ * 子节点用有序的char数组 + 二分查找，不为每个节点创建HashMap。
+ * 插入时沿路径更新各节点的前N名；删除时自底向上，只重算前N名里包含该商铺的节点。
+ */
+@Component
+public class ShopSuggestIndex implements ShopIndex {
+
+    /**
+     * 每个节点缓存的条数，也是一次联想最多返回的条数
+     */
+    public static final int TOP_N = 10;
+
+    private static final Comparator<Entry> RANK = Comparator.comparingInt((Entry e) -> e.sold).reversed()
+            .thenComparing(Comparator.comparingInt((Entry e) -> e.score).reversed())
+            .thenComparingLong(e -> e.id);
+
+    private final Node root = new Node();
+    private final Map<Long, Doc> docs = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int nodes = 1;
+
+    public ShopSuggestIndex(MeterRegistry meterRegistry) {
+        Gauge.builder("hmdp.shop.index.suggest.nodes", this, ShopSuggestIndex::nodes).register(meterRegistry);
+    }
+
+    @Override
+    public void upsert(Shop shop) {
+        if (StrUtil.isBlank(shop.getName())) {
+            remove(shop.getId());
+            return;
+        }
+        Entry entry = new Entry(shop.getId(), shop.getName(),
+                shop.getSold() == null ? 0 : shop.getSold(), shop.getScore() == null ? 0 : shop.getScore());
+        Set<String> keys = keys(shop.getName());
+        lock.writeLock().lock();
+        try {
+            removeInternal(shop.getId());
+            docs.put(shop.getId(), new Doc(entry, keys));
+            keys.forEach(key -> insert(key, entry));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(Long shopId) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(shopId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按前缀联想
+     * @param prefix 用户已输入的内容，汉字或拼音首字母
+     * @param limit 返回条数，最多TOP_N条
+     */
+    public List<ShopSuggestion> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            if (node == null) {
+                return Collections.emptyList();
+            }
+            int size = Math.min(limit, node.top.length);
+            List<ShopSuggestion> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(new ShopSuggestion(node.top[i].id, node.top[i].name));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int nodes() {
+        lock.readLock().lock();
+        try {
+            return nodes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(String key, Entry entry) {
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            Node child = node.child(key.charAt(i));
+            if (child == null) {
+                child = node.addChild(key.charAt(i));
+                nodes++;
+            }
+            node = child;
+            node.offer(entry);
+        }
+        node.terminals = append(node.terminals, entry.id);
+    }
+
+    private void removeInternal(Long shopId) {
+        Doc doc = docs.remove(shopId);
+        if (doc == null) {
+            return;
+        }
+        for (String key : doc.keys) {
+            // 1.记录路径
+            Node[] path = new Node[key.length() + 1];
+            path[0] = root;
+            for (int i = 0; i < key.length(); i++) {
+                path[i + 1] = path[i].child(key.charAt(i));
+            }
+            Node last = path[key.length()];
+            last.terminals = without(last.terminals, shopId);
+            // 2.自底向上重算包含该商铺的节点，删掉空节点
+            for (int i = key.length(); i > 0; i--) {
+                Node node = path[i];
+                if (node.terminals.length == 0 && node.labels.length == 0) {
+                    path[i - 1].removeChild(key.charAt(i - 1));
+                    nodes--;
+                } else if (node.contains(shopId)) {
+                    recompute(node, shopId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 由本节点结尾的商铺和各个子节点的前N名，合并出本节点的前N名
+     */
+    private void recompute(Node node, long excluded) {
+        List<Entry> candidates = new ArrayList<>();
+        for (long id : node.terminals) {
+            candidates.add(docs.get(id).entry);
+        }
+        for (Node child : node.children) {
+            candidates.addAll(Arrays.asList(child.top));
+        }
+        candidates.sort(RANK);
+        List<Entry> top = new ArrayList<>(TOP_N);
+        for (Entry entry : candidates) {
+            if (top.size() == TOP_N) {
+                break;
+            }
+            // 名称和拼音首字母两条路径可能经过同一个节点，按id去重
+            if (entry.id != excluded && !top.contains(entry)) {
+                top.add(entry);
+            }
+        }
+        node.top = top.toArray(new Entry[0]);
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : StrUtil.cleanBlank(text).toLowerCase();
+    }
+
+    private static Set<String> keys(String name) {
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add(normalize(name));
+        keys.add(normalize(PinyinUtil.getFirstLetter(name, "")));
+        keys.remove("");
+        return keys;
+    }
+
+    private static long[] append(long[] ids, long id) {
+        long[] result = Arrays.copyOf(ids, ids.length + 1);
+        result[ids.length] = id;
+        return result;
+    }
+
+    private static long[] without(long[] ids, long id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                long[] result = new long[ids.length - 1];
+                System.arraycopy(ids, 0, result, 0, i);
+                System.arraycopy(ids, i + 1, result, i, ids.length - i - 1);
+                return result;
+            }
+        }
+        return ids;
+    }
+
+    private static final class Doc {
+        private final Entry entry;
+        private final Set<String> keys;
+
+        Doc(Entry entry, Set<String> keys) {
+            this.entry = entry;
+            this.keys = keys;
+        }
+    }
+
+    private static final class Entry {
+        private final long id;
+        private final String name;
+        private final int sold;
+        private final int score;
+
+        Entry(long id, String name, int sold, int score) {
+            this.id = id;
+            this.name = name;
+            this.sold = sold;
+            this.score = score;
+        }
+    }
+
+    private static final class Node {
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final long[] NO_IDS = new long[0];
+        private static final Entry[] NO_ENTRIES = new Entry[0];
+
+        private char[] labels = NO_LABELS;
+        private Node[] children = NO_CHILDREN;
+        private long[] terminals = NO_IDS;
+        private Entry[] top = NO_ENTRIES;
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node addChild(char c) {
+            int index = -Arrays.binarySearch(labels, c) - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newLabels[index] = c;
+            Node child = new Node();
+            newChildren[index] = child;
+            System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            labels = newLabels;
+            children = newChildren;
+            return child;
+        }
+
+        void removeChild(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            if (index < 0) {
+                return;
+            }
+            char[] newLabels = new char[labels.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(labels, index + 1, newLabels, index, labels.length - index - 1);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            labels = newLabels;
+            children = newChildren;
+        }
+
+        boolean contains(long id) {
+            for (Entry entry : top) {
+                if (entry.id == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 排名进入前N时插入
+         */
+        void offer(Entry entry) {
+            if (contains(entry.id)) {
+                return;
+            }
+            if (top.length == TOP_N && RANK.compare(entry, top[TOP_N - 1]) >= 0) {
+                return;
+            }
+            Entry[] newTop = Arrays.copyOf(top, Math.min(top.length + 1, TOP_N));
+            newTop[newTop.length - 1] = entry;
+            Arrays.sort(newTop, RANK);
+            top = newTop;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.hmdp.index;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class ShopSuggestion {
+    private Long id;
+    private String name;
+}
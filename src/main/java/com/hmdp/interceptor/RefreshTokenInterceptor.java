@@ -1,8 +1,11 @@
 package com.hmdp.interceptor;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.RedisCircuitBreaker;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -11,6 +14,7 @@ import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -26,8 +30,18 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
     // RefreshTokenInterceptor类并没有交给Spring托管，不能用注解注入。可以通过构造器注入
     private StringRedisTemplate stringRedisTemplate;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 最近校验通过的token，Redis熔断时用来继续识别已登录用户
+     */
+    private static final int TOKEN_SNAPSHOT_CAPACITY = 10000;
+    private final LRUCache<String, UserDTO> tokenSnapshot =
+            CacheUtil.newLRUCache(TOKEN_SNAPSHOT_CAPACITY, TimeUnit.SECONDS.toMillis(RedisConstants.LOGIN_USER_TTL));
+
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate, RedisCircuitBreaker redisCircuitBreaker) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
     }
 
     /**
@@ -44,22 +58,28 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
             return true;
         }
 
-        // 3. 从redis获取User
+        // 3. 从redis获取User，Redis熔断时使用本地快照
         String key = RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        Map<Object, Object> userMap = redisCircuitBreaker.execute(
+                () -> stringRedisTemplate.opsForHash().entries(key), Collections::emptyMap);
+        UserDTO userDTO;
         if (userMap.isEmpty()) {
-            // 放行到下个拦截器。
-            return true;
+            userDTO = redisCircuitBreaker.isClosed() ? null : tokenSnapshot.get(token);
+            if (userDTO == null) {
+                // 放行到下个拦截器。
+                return true;
+            }
+        } else {
+            // 4. Hash类型转化为Java对象
+            userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+            tokenSnapshot.put(token, userDTO);
         }
 
-        // 4. Hash类型转化为Java对象
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-
         // 5. 存入ThreadLocal
         UserHolder.saveUser(userDTO);
 
         // 6. 每次获取User，刷新过期时间（用session的时候已经被实现了）
-        stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.SECONDS);
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.SECONDS));
 
         return true;
     }
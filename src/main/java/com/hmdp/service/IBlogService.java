@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +16,23 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result queryMyBlog(Long userId, Integer current, String cursor);
+
+    Result queryHotBlog(Integer current, String cursor);
+
+    List<Blog> queryHotBlogOfShop(Long shopId, int limit);
+
+    Result saveBlog(Blog blog);
+
+    Result queryBlogById(Long id);
+
+    Result likeBlog(Long id);
+
+    Result queryBlogLikes(Long id);
+
+    Result queryBlogOfFollow(Long max, Integer offset);
+
+    void loadHotBlogs();
+
+    void incrHotScore(Long blogId, int delta);
 }
@@ -0,0 +1,22 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.entity.Blog;
+
+public interface IFeedService {
+
+    /**
+     * 把新发布的笔记推送到粉丝的收件箱，在后台执行
+     */
+    void publish(Blog blog);
+
+    /**
+     * 滚动查询关注的人发布的笔记
+     * @param userId 当前用户
+     * @param max 上一页最小的发布时间，第一页传当前时间
+     * @param offset 上一页中发布时间等于max的条数，第一页传0
+     * @param size 每页条数
+     * @return 笔记id（list）、本页最小的发布时间和下一页的offset
+     */
+    ScrollResult scroll(Long userId, long max, int offset, int size);
+}
@@ -0,0 +1,8 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+
+public interface IShopDetailService {
+
+    Result queryShopDetail(Long shopId);
+}
@@ -0,0 +1,20 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.ImportProgress;
+import com.hmdp.dto.Result;
+
+import java.io.InputStream;
+
+public interface IShopImportService {
+
+    /**
+     * 提交导入任务
+     * @param input 请求体，NDJSON或者带表头的CSV
+     * @param contentLength 请求头中的长度，未知时为-1
+     * @param csv 是否是CSV
+     * @return 任务id
+     */
+    Result submit(InputStream input, long contentLength, boolean csv);
+
+    ImportProgress getProgress(String taskId);
+}
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,27 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Shop queryShopById(Long id);
+
+    Long queryLastModified(Long id);
+
     Result update(Shop shop);
+
+    void saveShop(Shop shop);
+
+    Result queryShopByType(Integer typeId, Integer current, String cursor, String sortBy, Double x, Double y);
+
+    Result queryShopByName(String name, Integer current, String cursor);
+
+    Result suggest(String prefix, Integer limit);
+
+    Result filterShops(List<Long> typeIds, List<String> areas, List<Integer> priceBands, Integer minScore, String cursor);
+
+    void loadShopGeo(List<Shop> shops);
+
+    void loadShopRank(Long typeId);
+
+    void incrSold(Long shopId, int count);
+
+    void afterShopsImported(List<Shop> shops);
 }
@@ -1,10 +1,20 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TransactionUtils;
+import com.hmdp.utils.UserHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +27,36 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    @Resource
+    private IBlogService blogService;
+
+    @Override
+    @Transactional
+    public Result saveComment(BlogComments comment) {
+        // 1.校验
+        if (comment.getBlogId() == null || StrUtil.isBlank(comment.getContent())) {
+            return Result.fail("评论内容不能为空");
+        }
+        Blog blog = blogService.getById(comment.getBlogId());
+        if (blog == null) {
+            return Result.fail("笔记不存在！");
+        }
+        // 2.保存评论
+        comment.setId(null);
+        comment.setUserId(UserHolder.getUser().getId());
+        if (comment.getAnswerId() == null) {
+            comment.setParentId(0L);
+            comment.setAnswerId(0L);
+        } else if (comment.getParentId() == null) {
+            comment.setParentId(comment.getAnswerId());
+        }
+        comment.setLiked(0);
+        comment.setStatus(false);
+        save(comment);
+        // 3.评论数加1（tb_blog.comments允许为NULL，新笔记是NULL），提交后增加笔记热度
+        blogService.update().setSql("comments = IFNULL(comments, 0) + 1").eq("id", comment.getBlogId()).update();
+        TransactionUtils.afterCommit(() ->
+                blogService.incrHotScore(comment.getBlogId(), SystemConstants.BLOG_HOT_COMMENT_WEIGHT));
+        return Result.ok(comment.getId());
+    }
 }
@@ -1,11 +1,53 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONArray;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.BlogLikes;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
+import com.hmdp.service.IFeedService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_EMPTY_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_EPOCH_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_BASE_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_DIRTY_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +59,416 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    /**
+     * 笔记详情中展示的点赞用户数
+     */
+    private static final int TOP_LIKERS = 5;
+
+    private static final String RANK_INCR = "incr";
+    private static final String RANK_SET = "set";
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    private static final DefaultRedisScript<Long> RANK_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+        RANK_SCRIPT = new DefaultRedisScript<>();
+        RANK_SCRIPT.setLocation(new ClassPathResource("rank.lua"));
+        RANK_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Resource
+    private IFeedService feedService;
+
+    /**
+     * 发布笔记，加入热度榜，并推送给粉丝
+     */
+    @Override
+    public Result saveBlog(Blog blog) {
+        blog.setUserId(UserHolder.getUser().getId());
+        save(blog);
+        updateHotScore(RANK_SET, blog.getId(), SystemConstants.BLOG_HOT_PUBLISH_SCORE);
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.delete(BLOG_HOT_EMPTY_KEY));
+        // 推送到粉丝的收件箱
+        feedService.publish(blog);
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result queryBlogById(Long id) {
+        Blog blog = getById(id);
+        if (blog == null) {
+            return Result.fail("笔记不存在！");
+        }
+        fillUsers(Collections.singletonList(blog));
+        fillLiked(Collections.singletonList(blog));
+        return Result.ok(blog);
+    }
+
+    /**
+     * 点赞或取消点赞。点赞记录在Redis的ZSET中（用户id -> 点赞时间），用脚本判断并修改，保证每个用户只计一次。
+     * 请求中不再修改tb_blog，热门笔记的点赞多时不会争抢行锁
+     */
+    @Override
+    public Result likeBlog(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        // 按主键判断笔记是否存在，不存在的id不能在Redis中创建点赞集合，也不能进入待写回集合和热度榜
+        if (query().eq("id", id).count() == 0) {
+            return Result.fail("笔记不存在！");
+        }
+        // 在Redis中切换点赞状态，同时把笔记记为待写回，数据库中的点赞数由BlogLikeFlusher定时批量更新
+        Long result = redisCircuitBreaker.execute(() -> stringRedisTemplate.execute(LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, BLOG_LIKED_DIRTY_KEY, BLOG_HOT_KEY), userId.toString(),
+                String.valueOf(System.currentTimeMillis()), id.toString()), () -> null);
+        if (result == null) {
+            return Result.fail("点赞失败，请稍后重试");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 查询点赞信息：当前用户是否点赞、点赞数、最早点赞的几个用户，一次pipeline
+     */
+    @Override
+    public Result queryBlogLikes(Long id) {
+        String key = BLOG_LIKED_KEY + id;
+        UserDTO user = UserHolder.getUser();
+        List<Object> results = redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    conn.zCard(key);
+                    conn.zRange(key, 0, TOP_LIKERS - 1);
+                    conn.hGet(BLOG_LIKED_BASE_KEY, id.toString());
+                    if (user != null) {
+                        conn.zScore(key, user.getId().toString());
+                    }
+                    return null;
+                }), () -> null);
+        if (results == null) {
+            return Result.fail("查询点赞信息失败，请稍后重试");
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> top = (Set<String>) results.get(1);
+        // 点赞数 = ZSET之外的基数 + ZSET中的点赞数；还没写回过的笔记，数据库中的点赞数就是基数
+        String base = (String) results.get(2);
+        long liked;
+        if (base != null) {
+            liked = Long.parseLong(base);
+        } else {
+            Blog blog = query().select("liked").eq("id", id).one();
+            liked = blog == null || blog.getLiked() == null ? 0 : blog.getLiked();
+        }
+        BlogLikes likes = new BlogLikes();
+        likes.setLiked(liked + (Long) results.get(0));
+        likes.setIsLike(user != null && results.get(3) != null);
+        likes.setLikers(userService.queryUserSummaries(top.stream().map(Long::valueOf).collect(Collectors.toList())));
+        return Result.ok(likes);
+    }
+
+    @Override
+    public Result queryMyBlog(Long userId, Integer current, String cursor) {
+        if (current != null) {
+            // 兼容按页码查询，不再执行COUNT
+            Page<Blog> page = query()
+                    .eq("user_id", userId)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 按 (user_id, id) 游标分页，新发布的在前
+        JSONArray keys = CursorUtils.decode(cursor, 1);
+        if (StrUtil.isNotBlank(cursor) && keys == null) {
+            return Result.fail("分页参数无效");
+        }
+        List<Blog> blogs = query()
+                .eq("user_id", userId)
+                .lt(keys != null, "id", keys == null ? null : keys.getLong(0))
+                .orderByDesc("id")
+                .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        return Result.ok(CursorUtils.of(blogs, SystemConstants.MAX_PAGE_SIZE, blog -> new Object[]{blog.getId()}));
+    }
+
+    /**
+     * 按热度分页查询笔记，热度榜在Redis的ZSET中，点赞、评论时增量更新，每小时整体衰减一次。
+     * 游标是 (上一页最后一条的分数, 同分数已经返回的条数, 衰减次数)；翻页期间发生过衰减时，按衰减系数换算游标中的分数。
+     * Redis不可用时降级为按点赞数查询数据库，游标是 (liked, id)，同一次翻页按游标的格式一直走同一种查询
+     */
+    @Override
+    public Result queryHotBlog(Integer current, String cursor) {
+        if (current != null && current < 1) {
+            return Result.fail("分页参数无效");
+        }
+        JSONArray keys = null;
+        if (current == null && StrUtil.isNotBlank(cursor)) {
+            keys = CursorUtils.decode(cursor, 3);
+            if (keys == null) {
+                JSONArray dbKeys = CursorUtils.decode(cursor, 2);
+                if (dbKeys == null) {
+                    return Result.fail("分页参数无效");
+                }
+                return queryHotBlogFromDb(null, dbKeys);
+            }
+        }
+        JSONArray redisKeys = keys;
+        CursorResult page = redisCircuitBreaker.execute(() -> queryHotBlogIds(current, redisKeys), () -> null);
+        if (page == null) {
+            return queryHotBlogFromDb(current, null);
+        }
+
+        // 按热度顺序查询笔记
+        @SuppressWarnings("unchecked")
+        List<Blog> blogs = queryBlogsByIds((List<Long>) page.getList());
+        fillUsers(blogs);
+        fillLiked(blogs);
+        if (current != null) {
+            return Result.ok(blogs);
+        }
+        page.setList(blogs);
+        return Result.ok(page);
+    }
+
+    /**
+     * 从热度榜中查询一页笔记id，list是笔记id，next是下一页的游标
+     */
+    private CursorResult queryHotBlogIds(Integer current, JSONArray keys) {
+        // 热度榜和"没有笔记"的标记都不存在时才从数据库加载
+        Long exists = stringRedisTemplate.countExistingKeys(Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_EMPTY_KEY));
+        if (exists == null || exists == 0) {
+            loadHotBlogs();
+        }
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        long epoch = Convert.toLong(stringRedisTemplate.opsForValue().get(BLOG_HOT_EPOCH_KEY), 0L);
+
+        // 1.查询热度榜，多取一条判断是否还有下一页
+        Set<ZSetOperations.TypedTuple<String>> tuples;
+        double max = Double.POSITIVE_INFINITY;
+        int offset = 0;
+        if (current != null) {
+            long from = (long) (current - 1) * size;
+            tuples = stringRedisTemplate.opsForZSet().reverseRangeWithScores(BLOG_HOT_KEY, from, from + size - 1);
+        } else {
+            if (keys != null) {
+                max = keys.getDouble(0);
+                offset = keys.getInt(1);
+                // 衰减和Redis中一样逐次相乘，换算后的分数和榜单中的分数完全相等
+                for (long i = keys.getLong(2); i < epoch; i++) {
+                    max *= SystemConstants.BLOG_HOT_DECAY_FACTOR;
+                }
+            }
+            tuples = stringRedisTemplate.opsForZSet()
+                    .reverseRangeByScoreWithScores(BLOG_HOT_KEY, Double.NEGATIVE_INFINITY, max, offset, size + 1);
+        }
+        List<ZSetOperations.TypedTuple<String>> list = tuples == null ? Collections.emptyList() : new ArrayList<>(tuples);
+        boolean hasMore = list.size() > size;
+        if (hasMore) {
+            list = list.subList(0, size);
+        }
+
+        // 2.解析id，计算下一页的游标
+        List<Long> ids = new ArrayList<>(list.size());
+        double lastScore = max;
+        int sameScore = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : list) {
+            ids.add(Long.valueOf(tuple.getValue()));
+            if (tuple.getScore() == lastScore) {
+                sameScore++;
+            } else {
+                lastScore = tuple.getScore();
+                sameScore = 1;
+            }
+        }
+        if (lastScore == max) {
+            // 整页分数都和上一页最后一条相同，要加上上一页跳过的条数
+            sameScore += offset;
+        }
+        CursorResult result = new CursorResult();
+        result.setList(ids);
+        result.setNext(hasMore ? CursorUtils.encode(lastScore, sameScore, epoch) : null);
+        return result;
+    }
+
+    /**
+     * 降级：按 (liked, id) 查询数据库。Redis的游标无法换算，降级时从第一页开始
+     */
+    private Result queryHotBlogFromDb(Integer current, JSONArray keys) {
+        if (current != null) {
+            // 兼容按页码查询，不再执行COUNT
+            List<Blog> records = query()
+                    .orderByDesc("liked", "id")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false))
+                    .getRecords();
+            fillUsers(records);
+            fillLiked(records);
+            return Result.ok(records);
+        }
+        // 点赞数更少，或者点赞数相同、id更小
+        List<Blog> blogs = query()
+                .and(keys != null, w -> w.lt("liked", keys.getInt(0))
+                        .or(o -> o.eq("liked", keys.getInt(0)).lt("id", keys.getLong(1))))
+                .orderByDesc("liked", "id")
+                .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        CursorResult result = CursorUtils.of(blogs, SystemConstants.MAX_PAGE_SIZE,
+                blog -> new Object[]{blog.getLiked(), blog.getId()});
+        List<Blog> page = blogs.subList(0, result.getList().size());
+        fillUsers(page);
+        fillLiked(page);
+        return Result.ok(result);
+    }
+
+    /**
+     * 滚动查询关注的人发布的笔记，按发布时间倒序
+     */
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        if (offset == null || offset < 0) {
+            return Result.fail("分页参数无效");
+        }
+        Long userId = UserHolder.getUser().getId();
+        ScrollResult result = feedService.scroll(userId, max, offset, SystemConstants.DEFAULT_PAGE_SIZE);
+        @SuppressWarnings("unchecked")
+        List<Blog> blogs = queryBlogsByIds((List<Long>) result.getList());
+        fillUsers(blogs);
+        fillLiked(blogs);
+        result.setList(blogs);
+        return Result.ok(result);
+    }
+
+    /**
+     * 从数据库加载热度榜：最近发布的若干篇笔记，按点赞数、评论数和发布至今的衰减计算分数。
+     * 先写入临时key，再RENAMENX成热度榜，查询不会看到只加载了一部分的榜单
+     */
+    @Override
+    public void loadHotBlogs() {
+        List<Blog> blogs = query()
+                .select("id", "liked", "comments", "create_time")
+                .orderByDesc("id")
+                .last("LIMIT " + SystemConstants.BLOG_HOT_MAX_SIZE)
+                .list();
+        if (blogs.isEmpty()) {
+            // 没有笔记时不能写入空的ZSET，写入标记，避免每次查询都重新加载；发布笔记时删除标记
+            stringRedisTemplate.opsForValue().set(BLOG_HOT_EMPTY_KEY, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        String tempKey = BLOG_HOT_KEY + ":loading:" + UUID.fastUUID().toString(true);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zAdd(tempKey, hotScore(blog, now), blog.getId().toString());
+            }
+            return null;
+        });
+        if (!Boolean.TRUE.equals(stringRedisTemplate.renameIfAbsent(tempKey, BLOG_HOT_KEY))) {
+            // 其他请求已经加载好了
+            stringRedisTemplate.delete(tempKey);
+        }
+    }
+
+    /**
+     * 热度榜已经存在时修改笔记的热度
+     */
+    @Override
+    public void incrHotScore(Long blogId, int delta) {
+        updateHotScore(RANK_INCR, blogId, delta);
+    }
+
+    /**
+     * 商铺点赞最多的几篇笔记，走 (shop_id, liked, id) 索引
+     */
+    @Override
+    public List<Blog> queryHotBlogOfShop(Long shopId, int limit) {
+        List<Blog> blogs = query()
+                .eq("shop_id", shopId)
+                .orderByDesc("liked", "id")
+                .last("LIMIT " + limit)
+                .list();
+        fillUsers(blogs);
+        return blogs;
+    }
+
+    /**
+     * 按ids的顺序查询笔记，不存在的跳过
+     */
+    private List<Blog> queryBlogsByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Blog> blogs = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, Function.identity()));
+        List<Blog> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = blogs.get(id);
+            if (blog != null) {
+                result.add(blog);
+            }
+        }
+        return result;
+    }
+
+    private static double hotScore(Blog blog, long now) {
+        double points = SystemConstants.BLOG_HOT_PUBLISH_SCORE
+                + (blog.getLiked() == null ? 0 : blog.getLiked())
+                + SystemConstants.BLOG_HOT_COMMENT_WEIGHT * (blog.getComments() == null ? 0 : blog.getComments());
+        long created = blog.getCreateTime() == null ? now
+                : blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        double periods = (double) Math.max(0, now - created) / SystemConstants.BLOG_HOT_DECAY_INTERVAL_MILLIS;
+        return points * Math.pow(SystemConstants.BLOG_HOT_DECAY_FACTOR, periods);
+    }
+
+    private void updateHotScore(String mode, Long blogId, Number score) {
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.execute(RANK_SCRIPT,
+                Collections.singletonList(BLOG_HOT_KEY), mode, blogId.toString(), String.valueOf(score)));
+    }
+
+    /**
+     * 查询笔记作者的昵称和头像，一页笔记只查一次
+     */
+    private void fillUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserSummaries(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
+    /**
+     * 当前用户是否点赞过这些笔记，一次pipeline查询。未登录或者Redis不可用时不设置
+     */
+    private void fillLiked(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()) {
+            return;
+        }
+        String userId = user.getId().toString();
+        List<Object> scores = redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    blogs.forEach(blog -> conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId));
+                    return null;
+                }), () -> null);
+        if (scores == null) {
+            return;
+        }
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
 }
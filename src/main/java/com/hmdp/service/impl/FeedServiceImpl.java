@@ -0,0 +1,464 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IFeedService;
+import com.hmdp.service.IFollowService;
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.SystemConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FEED_BIG_AUTHORS_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_FOLLOW_BIG_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_FOLLOW_BIG_TTL;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+
+/**
+ * 关注流，推拉结合：
+ * 1. 普通作者发布笔记后，后台线程按id分页读取作者的粉丝，每批粉丝一个pipeline，把笔记id写入各自的收件箱（ZSET，分数是发布时间）；
+ * 2. 粉丝数超过阈值的大V不推送，笔记只写入作者自己的发件箱，作者id记入大V集合；
+ * 3. 收件箱和发件箱都只保留最新的FEED_MAX_SIZE条，写入时顺便裁剪；写入失败（熔断、Redis或数据库异常）时记录推送到的位置，退避后从该位置重试，
+ *    超过最大重试次数（约5分钟）后放弃并计数，避免长时间故障时重试任务占满推送线程池；
+ * 4. 读取时取出收件箱和关注的大V的发件箱，多路归并，按 (max, offset) 滚动分页：分数不大于上一页的最小时间，跳过其中已经返回过的条数。
+ *    新笔记的分数比max大，不会插进已经翻过的位置，翻页期间有新发布也不会重复或者遗漏。
+ */
+@Slf4j
+@Service
+public class FeedServiceImpl implements IFeedService {
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private static final String MODE_PUSH = "push";
+    private static final String MODE_PULL = "pull";
+
+    /**
+     * 推送失败后的重试间隔，每次翻倍，最长1分钟
+     */
+    private static final long RETRY_MIN_MILLIS = 1000L;
+    private static final long RETRY_MAX_MILLIS = 60_000L;
+    /**
+     * 最多重试的次数，按上面的退避间隔累计约5分钟
+     */
+    private static final int MAX_RETRY_ATTEMPTS = 10;
+
+    /**
+     * 同一时间的笔记按id字符串倒序，和Redis中同分数成员的倒序一致，保证每次归并的顺序相同
+     */
+    private static final Comparator<Entry> NEWEST_FIRST = Comparator.comparingLong((Entry e) -> e.time).reversed()
+            .thenComparing(Comparator.comparing((Entry e) -> e.member).reversed());
+
+    @Resource
+    private IFollowService followService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 粉丝数超过该值的作者改为拉模式
+     */
+    @Value("${hmdp.feed.big-author-followers:10000}")
+    private int bigAuthorFollowers;
+
+    /**
+     * 队列满时由发布笔记的线程自己推送，推送不会丢，发布会变慢
+     */
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService retryScheduler;
+    /**
+     * 等待重试的推送任务数
+     */
+    private final AtomicInteger pendingRetries = new AtomicInteger();
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary fanOutRecipients;
+    private final Counter fanOutDropped;
+    private final Timer readLatency;
+    private final DistributionSummary readSources;
+
+    public FeedServiceImpl(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                r -> {
+                    Thread thread = new Thread(r, "feed-fan-out-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "feed-fan-out-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("hmdp.feed.fanout.retry.pending", pendingRetries, AtomicInteger::get).register(meterRegistry);
+        this.fanOutRecipients = DistributionSummary.builder("hmdp.feed.fanout.recipients")
+                .description("一篇笔记写入的收件箱数").register(meterRegistry);
+        this.fanOutDropped = Counter.builder("hmdp.feed.fanout.dropped")
+                .description("重试次数用完后放弃推送的笔记数").register(meterRegistry);
+        this.readLatency = Timer.builder("hmdp.feed.read.latency").publishPercentileHistogram().register(meterRegistry);
+        this.readSources = DistributionSummary.builder("hmdp.feed.read.sources")
+                .description("一次读取归并的收件箱和发件箱数").register(meterRegistry);
+    }
+
+    @Override
+    public void publish(Blog blog) {
+        long time = blog.getCreateTime() == null ? System.currentTimeMillis()
+                : blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        FanOutTask task = new FanOutTask(blog.getUserId(), blog.getId(), time);
+        executor.execute(() -> runFanOut(task));
+    }
+
+    @Override
+    public ScrollResult scroll(Long userId, long max, int offset, int size) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset不能为负数");
+        }
+        long begin = System.nanoTime();
+        try {
+            // 1.收件箱，加上关注的大V的发件箱
+            List<String> keys = new ArrayList<>();
+            keys.add(FEED_KEY + userId);
+            for (Long authorId : followedBigAuthors(userId)) {
+                keys.add(FEED_OUTBOX_KEY + authorId);
+            }
+            readSources.record(keys.size());
+
+            // 2.每个来源最多需要 offset + size 条，一个pipeline读取
+            List<Object> results = redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined(
+                    (RedisCallback<Object>) connection -> {
+                        StringRedisConnection conn = (StringRedisConnection) connection;
+                        keys.forEach(key -> conn.zRevRangeByScoreWithScores(key, 0, max, 0, offset + size));
+                        return null;
+                    }), () -> null);
+            if (results == null) {
+                return toScrollResult(Collections.emptyList(), max, offset);
+            }
+
+            // 3.多路归并，去重，跳过上一页已经返回的，取一页
+            return toScrollResult(merge(results, max, offset, size), max, offset);
+        } finally {
+            readLatency.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 执行推送任务，任何异常都退避后重试，不会抛给发布笔记的线程（队列满时是它在执行）
+     */
+    private void runFanOut(FanOutTask task) {
+        long begin = System.nanoTime();
+        try {
+            // 推拉模式只在第一次判断，重试时沿用
+            if (task.mode == null) {
+                task.mode = isBigAuthor(task.authorId) ? MODE_PULL : MODE_PUSH;
+            }
+            if (MODE_PULL.equals(task.mode)) {
+                writeOutbox(task.authorId, task.blogId, task.time);
+            } else {
+                fanOut(task);
+                fanOutRecipients.record(task.recipients);
+            }
+        } catch (Exception e) {
+            retryLater(task, e);
+        } finally {
+            Timer.builder("hmdp.feed.fanout.latency").tag("mode", task.mode == null ? "unknown" : task.mode)
+                    .register(meterRegistry).record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void retryLater(FanOutTask task, Exception e) {
+        if (task.attempts >= MAX_RETRY_ATTEMPTS) {
+            fanOutDropped.increment();
+            log.error("笔记 {} 推送失败，已重试{}次，放弃推送，已推送到粉丝关系id {}",
+                    task.blogId, task.attempts, task.lastId, e);
+            return;
+        }
+        long delay = Math.min(RETRY_MAX_MILLIS, RETRY_MIN_MILLIS << Math.min(task.attempts, 6));
+        task.attempts++;
+        log.warn("笔记 {} 推送失败，{}ms后第{}次重试：{}", task.blogId, delay, task.attempts, e.getMessage());
+        pendingRetries.incrementAndGet();
+        try {
+            retryScheduler.schedule(() -> {
+                pendingRetries.decrementAndGet();
+                executor.execute(() -> runFanOut(task));
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException rejected) {
+            // 应用正在关闭
+            pendingRetries.decrementAndGet();
+            log.error("笔记 {} 推送失败，应用关闭，不再重试", task.blogId, e);
+        }
+    }
+
+    /**
+     * 粉丝数是否超过阈值：只需要看第 阈值+1 个粉丝是否存在，不用COUNT全部
+     */
+    private boolean isBigAuthor(Long authorId) {
+        return !followService.query()
+                .select("id")
+                .eq("follow_user_id", authorId)
+                .last("LIMIT " + bigAuthorFollowers + ", 1")
+                .list()
+                .isEmpty();
+    }
+
+    /**
+     * 当前用户关注的大V。结果在Redis中缓存FEED_FOLLOW_BIG_TTL分钟，翻页时不用每页都读取全部关注；
+     * 关注、取关时删除缓存，作者新成为大V最多晚一个缓存周期出现在粉丝的关注流中
+     */
+    private List<Long> followedBigAuthors(Long userId) {
+        if (!redisCircuitBreaker.isAvailable()) {
+            // 熔断时收件箱也读不到，不用再查关注列表
+            return Collections.emptyList();
+        }
+        String key = FEED_FOLLOW_BIG_KEY + userId;
+        String cached = redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().get(key), () -> null);
+        if (cached != null) {
+            return StrUtil.isEmpty(cached) ? Collections.emptyList() : StrUtil.split(cached, ',').stream()
+                    .map(Long::valueOf).collect(Collectors.toList());
+        }
+        List<Long> result = loadFollowedBigAuthors(userId);
+        if (result != null) {
+            // 没有关注大V也缓存空字符串
+            redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue()
+                    .set(key, StrUtil.join(",", result), FEED_FOLLOW_BIG_TTL, TimeUnit.MINUTES));
+        }
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * 对关注的每个人pipeline执行SISMEMBER，不读取整个大V集合
+     * @return Redis不可用时返回null
+     */
+    private List<Long> loadFollowedBigAuthors(Long userId) {
+        List<Long> followIds = followService.query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .list()
+                .stream()
+                .map(Follow::getFollowUserId)
+                .collect(Collectors.toList());
+        if (followIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Object> isBig = redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined(
+                (RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    followIds.forEach(id -> conn.sIsMember(FEED_BIG_AUTHORS_KEY, id.toString()));
+                    return null;
+                }), () -> null);
+        if (isBig == null) {
+            return null;
+        }
+        List<Long> result = new ArrayList<>();
+        for (int i = 0; i < followIds.size(); i++) {
+            if (Boolean.TRUE.equals(isBig.get(i))) {
+                result.add(followIds.get(i));
+            }
+        }
+        return result;
+    }
+
+    private void writeOutbox(Long authorId, Long blogId, long time) {
+        String key = FEED_OUTBOX_KEY + authorId;
+        redisCircuitBreaker.executeOrThrow(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zAdd(key, time, blogId.toString());
+            conn.zRemRange(key, 0, -SystemConstants.FEED_MAX_SIZE - 1);
+            conn.sAdd(FEED_BIG_AUTHORS_KEY, authorId.toString());
+            return null;
+        }));
+    }
+
+    /**
+     * 按粉丝关系的id分页，每页一个pipeline写入收件箱并裁剪。
+     * 每页写入成功后才前进，失败重试时从失败的那一页开始；ZADD是幂等的，重复写入没有影响
+     */
+    private void fanOut(FanOutTask task) {
+        String member = task.blogId.toString();
+        while (true) {
+            List<Follow> followers = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", task.authorId)
+                    .gt("id", task.lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + SystemConstants.FEED_FAN_OUT_BATCH)
+                    .list();
+            if (followers.isEmpty()) {
+                return;
+            }
+            redisCircuitBreaker.executeOrThrow(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Follow follow : followers) {
+                    String key = FEED_KEY + follow.getUserId();
+                    conn.zAdd(key, task.time, member);
+                    conn.zRemRange(key, 0, -SystemConstants.FEED_MAX_SIZE - 1);
+                }
+                return null;
+            }));
+            task.recipients += followers.size();
+            task.lastId = followers.get(followers.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 多路归并：每一路已经按时间倒序，用堆每次取出最新的一条。
+     * 作者从推模式切换到拉模式前后，同一篇笔记可能同时在收件箱和发件箱中，按id去重
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Entry> merge(List<Object> sources, long max, int offset, int size) {
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> NEWEST_FIRST.compare(a.head, b.head));
+        for (Object source : sources) {
+            if (source == null) {
+                continue;
+            }
+            Iterator<ZSetOperations.TypedTuple<String>> it = ((Set<ZSetOperations.TypedTuple<String>>) source).iterator();
+            if (it.hasNext()) {
+                heap.add(new Cursor(it));
+            }
+        }
+        List<Entry> page = new ArrayList<>(size);
+        Entry last = null;
+        int skipped = 0;
+        while (!heap.isEmpty() && page.size() < size) {
+            Cursor cursor = heap.poll();
+            Entry entry = cursor.head;
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+            if (last != null && last.time == entry.time && last.member.equals(entry.member)) {
+                continue;
+            }
+            last = entry;
+            // 和上一页最小时间相同的，前offset条已经返回过
+            if (entry.time == max && skipped < offset) {
+                skipped++;
+                continue;
+            }
+            page.add(entry);
+        }
+        return page;
+    }
+
+    /**
+     * 解析一页结果：本页最小的时间，以及本页中等于该时间的条数（作为下一页的offset）
+     */
+    private static ScrollResult toScrollResult(List<Entry> entries, long max, int offset) {
+        List<Long> ids = new ArrayList<>(entries.size());
+        long minTime = max;
+        int sameTime = 0;
+        for (Entry entry : entries) {
+            ids.add(Long.valueOf(entry.member));
+            if (entry.time == minTime) {
+                sameTime++;
+            } else {
+                minTime = entry.time;
+                sameTime = 1;
+            }
+        }
+        if (minTime == max) {
+            // 整页时间都和上一页最小时间相同，要加上上一页跳过的条数
+            sameTime += offset;
+        }
+        ScrollResult result = new ScrollResult();
+        result.setList(ids);
+        result.setMinTime(minTime);
+        result.setOffset(sameTime);
+        return result;
+    }
+
+    /**
+     * 一篇笔记的推送任务，记录推送进度，重试时从断点继续
+     */
+    private static final class FanOutTask {
+        private final Long authorId;
+        private final Long blogId;
+        private final long time;
+        private String mode;
+        /**
+         * 已经推送完的最后一个粉丝关系id
+         */
+        private long lastId;
+        private int recipients;
+        private int attempts;
+
+        FanOutTask(Long authorId, Long blogId, long time) {
+            this.authorId = authorId;
+            this.blogId = blogId;
+            this.time = time;
+        }
+    }
+
+    private static final class Entry {
+        private final String member;
+        private final long time;
+
+        Entry(ZSetOperations.TypedTuple<String> tuple) {
+            this.member = tuple.getValue();
+            this.time = tuple.getScore().longValue();
+        }
+    }
+
+    /**
+     * 一路数据的读取位置
+     */
+    private static final class Cursor {
+        private final Iterator<ZSetOperations.TypedTuple<String>> it;
+        private Entry head;
+
+        Cursor(Iterator<ZSetOperations.TypedTuple<String>> it) {
+            this.it = it;
+            this.head = new Entry(it.next());
+        }
+
+        boolean advance() {
+            if (!it.hasNext()) {
+                return false;
+            }
+            head = new Entry(it.next());
+            return true;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopDetail;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.VoucherMapper;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IShopDetailService;
+import com.hmdp.service.IShopService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 商铺页面聚合查询：商铺、优惠券、热门笔记在有界线程池中并行查询，总耗时取决于最慢的一个。
+ * 所有部分共用一个截止时间，到期没有返回的部分跳过，记在missing中，其余部分照常返回。
+ */
+@Slf4j
+@Service
+public class ShopDetailServiceImpl implements IShopDetailService {
+
+    private static final String PART_SHOP = "shop";
+    private static final String PART_VOUCHERS = "vouchers";
+    private static final String PART_BLOGS = "blogs";
+
+    private static final int THREADS = 16;
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int BLOG_SIZE = 5;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private VoucherMapper voucherMapper;
+
+    @Resource
+    private IBlogService blogService;
+
+    /**
+     * 等待各部分返回的最长时间
+     */
+    @Value("${hmdp.shop.detail-timeout-ms:300}")
+    private long timeoutMillis;
+
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+
+    public ShopDetailServiceImpl(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列满时直接拒绝，该部分按失败处理，不占用请求线程
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                r -> {
+                    Thread thread = new Thread(r, "shop-detail-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        Gauge.builder("hmdp.shop.detail.queue", executor, e -> e.getQueue().size()).register(meterRegistry);
+    }
+
+    @Override
+    public Result queryShopDetail(Long shopId) {
+        // 1.同时发起三个查询
+        CompletableFuture<Shop> shop = submit(() -> shopService.queryShopById(shopId));
+        CompletableFuture<List<Voucher>> vouchers = submit(() -> voucherMapper.queryVoucherOfShop(shopId));
+        CompletableFuture<List<Blog>> blogs = submit(() -> blogService.queryHotBlogOfShop(shopId, BLOG_SIZE));
+
+        // 2.在同一个截止时间前等待各部分
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        ShopDetail detail = new ShopDetail();
+        List<String> missing = new ArrayList<>(3);
+        detail.setShop(await(PART_SHOP, shop, deadline, missing));
+        if (detail.getShop() == null && !missing.contains(PART_SHOP)) {
+            vouchers.cancel(true);
+            blogs.cancel(true);
+            return Result.fail("店铺不存在！");
+        }
+        detail.setVouchers(await(PART_VOUCHERS, vouchers, deadline, missing));
+        detail.setBlogs(await(PART_BLOGS, blogs, deadline, missing));
+        detail.setMissing(missing.isEmpty() ? null : missing);
+        return Result.ok(detail);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private <T> T await(String part, CompletableFuture<T> future, long deadline, List<String> missing) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            partial(part, "timeout");
+        } catch (ExecutionException e) {
+            log.warn("商铺详情查询{}失败", part, e.getCause());
+            partial(part, "error");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            partial(part, "interrupted");
+        }
+        missing.add(part);
+        return null;
+    }
+
+    private void partial(String part, String reason) {
+        Counter.builder("hmdp.shop.detail.partial")
+                .tag("part", part)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,279 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.IORuntimeException;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.text.csv.CsvReadConfig;
+import cn.hutool.core.text.csv.CsvReader;
+import cn.hutool.core.text.csv.CsvRow;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.ImportProgress;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopImportService;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商铺批量导入。
+ * 1. 请求体先流式写入临时文件（大小有上限），接口立即返回任务id，不占用请求线程，也不把整个文件读进内存；
+ * 2. 后台线程逐行解析，每BATCH_SIZE条一次JDBC批量插入（连接参数开启了rewriteBatchedStatements，会合并成多值INSERT）；
+ * 3. 每批插入后，用pipeline写入GEO、商铺缓存、排行榜，并更新内存索引；
+ * 4. 进度和吞吐量可以按任务id查询。进度保存在接收导入请求的节点上。
+ */
+@Slf4j
+@Service
+public class ShopImportServiceImpl implements IShopImportService {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAX_ERRORS = 20;
+    private static final int MAX_PENDING_TASKS = 4;
+    private static final int PROGRESS_CAPACITY = 100;
+
+    @Resource
+    private IShopService shopService;
+
+    /**
+     * 请求体的大小上限，超过时拒绝导入并删除临时文件
+     */
+    @Value("${hmdp.shop.import-max-bytes:104857600}")
+    private long maxBytes;
+
+    private final LRUCache<String, ImportProgress> progress = CacheUtil.newLRUCache(PROGRESS_CAPACITY);
+
+    /**
+     * 同一时间只执行一个导入任务，避免占满数据库连接
+     */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING_TASKS), r -> {
+                Thread thread = new Thread(r, "shop-import");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    @Override
+    public Result submit(InputStream input, long contentLength, boolean csv) {
+        // 1.写入临时文件，超过大小上限时拒绝
+        if (contentLength > maxBytes) {
+            return Result.fail("导入文件不能超过" + maxBytes / 1024 / 1024 + "MB");
+        }
+        String taskId = UUID.fastUUID().toString(true);
+        File file = FileUtil.createTempFile("shop-import-", ".tmp", null, true);
+        boolean written;
+        try {
+            written = copy(input, file);
+        } catch (IOException e) {
+            FileUtil.del(file);
+            throw new IORuntimeException(e);
+        }
+        if (!written) {
+            FileUtil.del(file);
+            return Result.fail("导入文件不能超过" + maxBytes / 1024 / 1024 + "MB");
+        }
+        // 2.先登记进度再提交，小文件很快导入完成时，DONE不会被这里的RUNNING覆盖
+        progress.put(taskId, new Task(taskId).snapshot(ImportProgress.RUNNING));
+        try {
+            executor.execute(() -> run(taskId, file, csv));
+        } catch (RejectedExecutionException e) {
+            progress.remove(taskId);
+            FileUtil.del(file);
+            return Result.fail("导入任务过多，请稍后重试");
+        }
+        return Result.ok(taskId);
+    }
+
+    @Override
+    public ImportProgress getProgress(String taskId) {
+        return progress.get(taskId, false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 流式写入文件，边写边计数，不依赖客户端声明的Content-Length
+     * @return false：超过大小上限
+     */
+    private boolean copy(InputStream input, File file) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        try (OutputStream out = FileUtil.getOutputStream(file)) {
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                total += n;
+                if (total > maxBytes) {
+                    return false;
+                }
+                out.write(buffer, 0, n);
+            }
+        }
+        return true;
+    }
+
+    private void run(String taskId, File file, boolean csv) {
+        Task task = new Task(taskId);
+        try (BufferedReader reader = FileUtil.getReader(file, StandardCharsets.UTF_8)) {
+            if (csv) {
+                importCsv(task, reader);
+            } else {
+                importNdjson(task, reader);
+            }
+            task.flush();
+            progress.put(taskId, task.snapshot(ImportProgress.DONE));
+            log.info("商铺导入完成，任务 {}，读取 {} 行，写入 {} 家，失败 {} 行，耗时 {} ms",
+                    taskId, task.read, task.inserted, task.failed, System.currentTimeMillis() - task.begin);
+        } catch (Exception e) {
+            log.error("商铺导入失败，任务 {}", taskId, e);
+            task.error(task.read, e.getMessage());
+            progress.put(taskId, task.snapshot(ImportProgress.FAILED));
+        } finally {
+            FileUtil.del(file);
+        }
+    }
+
+    private void importNdjson(Task task, BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (StrUtil.isBlank(line)) {
+                continue;
+            }
+            task.read++;
+            try {
+                task.add(toShop(JSONUtil.parseObj(line)));
+            } catch (Exception e) {
+                task.error(task.read, e.getMessage());
+            }
+        }
+    }
+
+    private void importCsv(Task task, Reader reader) {
+        CsvReader csvReader = new CsvReader(reader, CsvReadConfig.defaultConfig().setContainsHeader(true));
+        try {
+            for (CsvRow row : csvReader) {
+                task.read++;
+                try {
+                    task.add(toShop(row.getFieldMap()));
+                } catch (Exception e) {
+                    task.error(row.getOriginalLineNumber() + 1, e.getMessage());
+                }
+            }
+        } finally {
+            IoUtil.close(csvReader);
+        }
+    }
+
+    /**
+     * 字段名支持驼峰（typeId）和下划线（type_id）两种写法
+     */
+    private Shop toShop(Map<String, ?> fields) {
+        Shop shop = BeanUtil.fillBeanWithMap(fields, new Shop(), true, true);
+        shop.setId(null);
+        if (StrUtil.isBlank(shop.getName()) || shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            throw new IllegalArgumentException("name、typeId、x、y不能为空");
+        }
+        // 数据库中没有默认值的字段
+        if (shop.getImages() == null) {
+            shop.setImages("");
+        }
+        if (shop.getAddress() == null) {
+            shop.setAddress("");
+        }
+        if (shop.getSold() == null) {
+            shop.setSold(0);
+        }
+        if (shop.getComments() == null) {
+            shop.setComments(0);
+        }
+        if (shop.getScore() == null) {
+            shop.setScore(0);
+        }
+        return shop;
+    }
+
+    /**
+     * 一个导入任务的状态，只在导入线程中修改
+     */
+    private class Task {
+        private final String taskId;
+        private final long begin = System.currentTimeMillis();
+        private final List<Shop> batch = new ArrayList<>(BATCH_SIZE);
+        private final List<String> errors = new ArrayList<>();
+        private long read;
+        private long inserted;
+        private long failed;
+
+        Task(String taskId) {
+            this.taskId = taskId;
+        }
+
+        void add(Shop shop) {
+            batch.add(shop);
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void error(long line, String message) {
+            failed++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add("第" + line + "行：" + message);
+            }
+        }
+
+        /**
+         * 批量插入，再写入Redis和索引，最后更新进度
+         */
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<Shop> shops = new ArrayList<>(batch);
+            batch.clear();
+            shopService.saveBatch(shops, BATCH_SIZE);
+            shopService.afterShopsImported(shops);
+            inserted += shops.size();
+            progress.put(taskId, snapshot(ImportProgress.RUNNING));
+        }
+
+        ImportProgress snapshot(String status) {
+            ImportProgress p = new ImportProgress();
+            p.setTaskId(taskId);
+            p.setStatus(status);
+            p.setRead(read);
+            p.setInserted(inserted);
+            p.setFailed(failed);
+            p.setErrors(Collections.unmodifiableList(new ArrayList<>(errors)));
+            long elapsed = System.currentTimeMillis() - begin;
+            p.setElapsedMillis(elapsed);
+            p.setRowsPerSecond(elapsed == 0 ? 0 : inserted * 1000 / elapsed);
+            return p;
+        }
+    }
+}
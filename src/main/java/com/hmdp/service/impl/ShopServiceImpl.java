@@ -1,28 +1,65 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.HmdpCacheEvict;
+import com.hmdp.annotation.HmdpCached;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
+import com.hmdp.index.ShopDistance;
+import com.hmdp.index.ShopFilterIndex;
+import com.hmdp.index.ShopIndexManager;
+import com.hmdp.index.ShopNameIndex;
+import com.hmdp.index.ShopSpatialIndex;
+import com.hmdp.index.ShopSuggestIndex;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.RedisCircuitBreaker;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TransactionUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ClassUtils;
 
-import javax.annotation.Resource;
 import java.time.LocalDateTime;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -38,24 +75,68 @@ import static com.hmdp.utils.RedisConstants.*;
 @Slf4j
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    /**
+     * 商铺详情的缓存配置，批量读写商铺缓存时按同样的策略和格式
+     */
+    public static final HmdpCached SHOP_CACHE = AnnotationUtils.findAnnotation(
+            ClassUtils.getMethod(ShopServiceImpl.class, "queryShopById", Long.class), HmdpCached.class);
+
+    private static final String RANK_SOLD = "sold";
+    private static final String RANK_SCORE = "score";
+    private static final String RANK_INCR = "incr";
+    private static final String RANK_SET = "set";
+    /**
+     * 排行榜降级查询数据库时游标的标记，和排行榜的游标区分
+     */
+    private static final String DB_CURSOR = "db";
+
+    private static final DefaultRedisScript<Long> RANK_SCRIPT;
+    static {
+        RANK_SCRIPT = new DefaultRedisScript<>();
+        RANK_SCRIPT.setLocation(new ClassPathResource("rank.lua"));
+        RANK_SCRIPT.setResultType(Long.class);
+    }
+
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
-    @Resource
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Autowired
     private CacheClient cacheClient;
 
-    @Override
-    public Result queryById(Long id) {
-        // 查询：解决缓存穿透
-        // Shop shop = queryWithoutCachePenetration(id);
-        Shop shop = cacheClient.queryWithoutCachePenetration(
-                CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    @Autowired
+    private ShopSpatialIndex shopSpatialIndex;
 
-        // 解决缓存击穿方案一：互斥锁
-        // Shop shop = queryWithMutexLock(id);
+    @Autowired
+    private ShopIndexManager shopIndexManager;
+
+    @Autowired
+    private ShopNameIndex shopNameIndex;
 
-        // 解决缓存击穿方案二：逻辑过期
-//         Shop shop = queryWithLogicExpiration(id);
+    @Autowired
+    private ShopSuggestIndex shopSuggestIndex;
+
+    @Autowired
+    private ShopFilterIndex shopFilterIndex;
+
+    /**
+     * 附近商铺是否使用本节点的内存空间索引
+     */
+    @Value("${hmdp.shop.nearby-local-index:false}")
+    private boolean nearbyLocalIndex;
+
+    /**
+     * 附近商铺的搜索半径
+     */
+    private static final double NEARBY_RADIUS_METERS = 5000;
+
+    @Override
+    public Result queryById(Long id) {
+        // 通过代理对象调用，缓存注解才会生效
+        IShopService proxy = (IShopService) AopContext.currentProxy();
+        Shop shop = proxy.queryShopById(id);
         if (shop == null) {
             log.info("商铺不存在！");
             return Result.fail("商铺不存在！");
@@ -65,163 +146,621 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
     /**
-     * 查询：解决缓存击穿/热点失效
-     * 方案一：互斥锁
+     * 查询商铺，缓存策略由注解决定（缓存穿透/互斥锁/逻辑过期），预热时也按注解的配置写入缓存
      */
-    private Shop queryWithMutexLock(Long id) {
-        // 1. query from cache.
-        // 用hash和string类型都可以。value无需修改，用string也好。
-        String key = CACHE_SHOP_KEY + id;
-        String cachedShopJson = stringRedisTemplate.opsForValue().get(key);
+    @Override
+    @HmdpCached(prefix = CACHE_SHOP_KEY, key = "#id", ttl = CACHE_SHOP_TTL, strategy = CacheStrategy.PASS_THROUGH)
+    public Shop queryShopById(Long id) {
+        return getById(id);
+    }
 
-        // 2. not null, return
-        if (StrUtil.isNotBlank(cachedShopJson)) {
-//            log.info("成功从缓存中获取到了店铺 {} 的信息：{}", id, cachedShopJson);
-            return JSONUtil.toBean(cachedShopJson, Shop.class);
+    /**
+     * 查询商铺的最后修改时间（毫秒），用于HTTP条件请求。
+     * 优先读缓存中的校验值，不需要读取和反序列化商铺；没有时查询商铺后写入
+     * @return 商铺不存在时返回null
+     */
+    @Override
+    public Long queryLastModified(Long id) {
+        String key = SHOP_CACHE.prefix() + id;
+        String validator = cacheClient.getValidator(key);
+        if (validator != null) {
+            return Long.valueOf(validator);
         }
-
-        // 2.1 ""
-        if ("".equals(cachedShopJson)) {
-            log.info("缓存穿透解决方案");
+        Shop shop = ((IShopService) AopContext.currentProxy()).queryShopById(id);
+        if (shop == null || shop.getUpdateTime() == null) {
             return null;
         }
+        long lastModified = shop.getUpdateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        cacheClient.setValidator(key, String.valueOf(lastModified), SHOP_CACHE.ttl(), SHOP_CACHE.unit());
+        return lastModified;
+    }
+
+    @Override
+    @Transactional // 单体系统直接用事务。
+    @HmdpCacheEvict(prefix = CACHE_SHOP_KEY, key = "#shop.id")
+    public Result update(Shop shop) {
+        // verify the id of shop
+        if (shop.getId() == null) {
+            return Result.fail("店铺ID不能为空");
+        }
+        Shop old = getById(shop.getId());
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
 
-        String mutexLockKey = LOCK_SHOP_KEY + id;
-        Shop shop;
+        // update database, 缓存由注解在事务提交后删除
+        super.updateById(shop);
 
-        // 解决缓存击穿，获取互斥锁，引入DC、重试机制，最后释放
-        try {
-            // 3. otherwise, fix the hotspot invalid.
-            boolean getLock = tryLock(mutexLockKey);
-            if (!getLock) {
-                // 3.1 fail to get the mutex lock, sleep and retry later.
-                log.info("线程{} :获取互斥锁失败！", Thread.currentThread().getName());
-                Thread.sleep(50);
-                queryWithMutexLock(id);
+        // 坐标或类型可能变化，提交后同步GEO。数据库已经提交，Redis失败只记录，不影响返回结果
+        TransactionUtils.afterCommit(() -> {
+            Shop latest = getById(shop.getId());
+            if (latest == null) {
+                return;
             }
+            boolean typeChanged = !Objects.equals(old.getTypeId(), latest.getTypeId());
+            redisCircuitBreaker.execute(() -> {
+                if (typeChanged) {
+                    stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId(), old.getId().toString());
+                }
+                loadShopGeo(Collections.singletonList(latest));
+                syncShopRank(old, latest);
+                // 所属类型变化时，两个类型的分页缓存都失效；其他字段的变化由商铺缓存处理
+                if (typeChanged) {
+                    cacheClient.incrVersion(CACHE_SHOP_TYPE_VERSION_KEY + old.getTypeId());
+                    cacheClient.incrVersion(CACHE_SHOP_TYPE_VERSION_KEY + latest.getTypeId());
+                }
+            });
+        });
+        shopIndexManager.onShopChanged(shop.getId());
+        return Result.ok();
+    }
 
-            // 3.2 Double check the cache
-            String dcCached = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(dcCached)) {
-                return JSONUtil.toBean(dcCached, Shop.class);
+    @Override
+    @Transactional
+    public void saveShop(Shop shop) {
+        save(shop);
+        // 提交后写入GEO、排行榜，类型分页缓存失效。数据库已经提交，Redis失败只记录，不影响返回结果
+        TransactionUtils.afterCommit(() -> {
+            Shop latest = getById(shop.getId());
+            if (latest == null) {
+                return;
             }
+            redisCircuitBreaker.execute(() -> {
+                loadShopGeo(Collections.singletonList(latest));
+                syncShopRank(null, latest);
+                cacheClient.incrVersion(CACHE_SHOP_TYPE_VERSION_KEY + latest.getTypeId());
+            });
+        });
+        shopIndexManager.onShopChanged(shop.getId());
+    }
 
-            log.info("线程{} :获取互斥锁成功！", Thread.currentThread().getName());
-            // 3.3 get the lock, reconstruct the cache. Mimic the scenario that it lasts long.
-            shop = getById(id);
-            Thread.sleep(200);
-
-            // 4. null, return
-            if (shop == null) {
-                log.info("数据库中没有店铺 {} 的信息", id);
-                // 4.1 to avoid the cache penetration,
-                // add empty to redis with a 2-min ttl when we cannot access the info from database.
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, String cursor, String sortBy, Double x, Double y) {
+        // 1.按销量或评分排序，查询排行榜
+        if (RANK_SOLD.equals(sortBy) || RANK_SCORE.equals(sortBy)) {
+            return queryShopByRank(typeId, sortBy, current, cursor);
+        }
+        // 不需要按坐标查询，按数据库分页
+        if (x == null || y == null) {
+            return queryShopByTypePage(typeId, current, cursor);
+        }
 
-            // 5. not null, add to cache for 30 min
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException();
-        } finally {
-            // 6. unlock the mutex lock
-            unlock(mutexLockKey);
+        // 2.计算分页参数，按距离排序时只支持页码
+        if (current == null) {
+            current = 1;
+        }
+        if (current < 1) {
+            return Result.fail("分页参数无效");
+        }
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        if (nearbyLocalIndex) {
+            return Result.ok(queryNearbyFromIndex(typeId, x, y, from, end));
         }
 
-        // 7. return.
-        return shop;
+        // 3.查询redis，按照距离排序、分页。结果：shopId、distance
+        String key = SHOP_GEO_KEY + typeId;
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = searchNearby(key, x, y, end);
+        if (results == null || results.getContent().isEmpty()) {
+            // GEO还没有加载（预热超时或者新类型），从数据库加载后再查一次
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                return Result.ok(Collections.emptyList());
+            }
+            loadShopGeo(query().select("id", "type_id", "x", "y").eq("type_id", typeId).list());
+            results = searchNearby(key, x, y, end);
+        }
+        if (results == null) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
+        if (list.size() <= from) {
+            // 没有下一页了
+            return Result.ok(Collections.emptyList());
+        }
+
+        // 4.截取 from ~ end的部分，解析出id和距离
+        List<Long> ids = new ArrayList<>(list.size() - from);
+        Map<Long, Double> distanceMap = new HashMap<>(list.size() - from);
+        list.stream().skip(from).forEach(result -> {
+            Long shopId = Long.valueOf(result.getContent().getName());
+            ids.add(shopId);
+            distanceMap.put(shopId, result.getDistance().getValue());
+        });
+
+        // 5.根据id一次查出全部商铺，保持距离顺序
+        List<Shop> shops = queryByIdsFromCache(ids);
+        shops.forEach(shop -> shop.setDistance(distanceMap.get(shop.getId())));
+        return Result.ok(shops);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 按类型分页查询。每页的商铺id缓存在Redis中，key里带着该类型的版本号，商铺所属类型变化时版本号加一，
+     * 该类型所有页的缓存一起失效；页里只存id，商铺详情走商铺缓存批量读取，商铺修改时不需要清理列表缓存。
+     */
+    private Result queryShopByTypePage(Integer typeId, Integer current, String cursor) {
+        // 1.解析分页参数
+        if (current != null && current < 1) {
+            return Result.fail("分页参数无效");
+        }
+        Long lastId = null;
+        if (current == null) {
+            JSONArray keys = CursorUtils.decode(cursor, 1);
+            if (StrUtil.isNotBlank(cursor) && keys == null) {
+                return Result.fail("分页参数无效");
+            }
+            lastId = keys == null ? 0L : keys.getLong(0);
+        }
+        Long afterId = lastId;
+
+        // 2.查询这一页的id，缓存未命中时查数据库
+        long version = cacheClient.getVersion(CACHE_SHOP_TYPE_VERSION_KEY + typeId);
+        String pageId = typeId + ":" + version + ":" + (current != null ? "p" + current : "c" + lastId);
+        CursorResult idPage = cacheClient.queryWithPassThrough(CACHE_SHOP_TYPE_PAGE_KEY, pageId, CursorResult.class,
+                ignored -> loadShopIdPage(typeId, current, afterId), CACHE_SHOP_TYPE_PAGE_TTL, TimeUnit.MINUTES);
+
+        // 3.批量读取商铺详情
+        List<Shop> shops = queryByIdsFromCache(Convert.toList(Long.class, idPage.getList()));
+        if (current != null) {
+            return Result.ok(shops);
+        }
+        CursorResult result = new CursorResult();
+        result.setList(shops);
+        result.setNext(idPage.getNext());
+        return Result.ok(result);
+    }
+
+    private CursorResult loadShopIdPage(Integer typeId, Integer current, Long afterId) {
+        if (current != null) {
+            // 兼容按页码查询，不执行COUNT
+            List<Long> ids = listObjs(query().select("id")
+                    .eq("type_id", typeId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE + "," + SystemConstants.DEFAULT_PAGE_SIZE)
+                    .getWrapper(), o -> Long.valueOf(o.toString()));
+            CursorResult page = new CursorResult();
+            page.setList(ids);
+            return page;
+        }
+        // 按 (type_id, id) 游标分页
+        List<Long> ids = listObjs(query().select("id")
+                .eq("type_id", typeId)
+                .gt("id", afterId)
+                .orderByAsc("id")
+                .last("LIMIT " + (SystemConstants.DEFAULT_PAGE_SIZE + 1))
+                .getWrapper(), o -> Long.valueOf(o.toString()));
+        return CursorUtils.of(ids, SystemConstants.DEFAULT_PAGE_SIZE, id -> new Object[]{id});
+    }
 
     /**
-     * 查询：解决缓存击穿/热点失效
-     * 方案二：逻辑过期。
-     * 先预热。
+     * 按排行榜分页。游标是上一页最后一条的分数和同分数已经返回的条数，
+     * 下一页从该分数开始按分数倒序查询，再跳过已经返回的同分数商铺。
+     * Redis不可用时降级为按 (sold或score, id) 查询数据库，游标带上DB_CURSOR标记，同一次翻页一直走同一种查询
      */
-    private Shop queryWithLogicExpiration(Long id) {
-        // 1. query from cache.
-        // 用hash和string类型都可以。value无需修改，用string也好。
-        String key = CACHE_SHOP_KEY + id;
-        String cachedShopJson = stringRedisTemplate.opsForValue().get(key);
+    private Result queryShopByRank(Integer typeId, String sortBy, Integer current, String cursor) {
+        if (current != null && current < 1) {
+            return Result.fail("分页参数无效");
+        }
+        JSONArray keys = null;
+        if (current == null && StrUtil.isNotBlank(cursor)) {
+            keys = CursorUtils.decode(cursor, 2);
+            if (keys == null) {
+                JSONArray dbKeys = CursorUtils.decode(cursor, 3);
+                if (dbKeys == null || !DB_CURSOR.equals(dbKeys.getStr(2))) {
+                    return Result.fail("分页参数无效");
+                }
+                return queryShopByRankFromDb(typeId, sortBy, null, dbKeys);
+            }
+        }
+        JSONArray redisKeys = keys;
+        CursorResult page = redisCircuitBreaker.execute(
+                () -> queryShopRankPage(typeId, sortBy, current, redisKeys), () -> null);
+        if (page == null) {
+            return queryShopByRankFromDb(typeId, sortBy, current, null);
+        }
 
-        // 2. null, return 因为已经缓存提前预热了
-        if (StrUtil.isBlank(cachedShopJson)) {
-            log.info("没有店铺 {} 的信息", id);
-            return null;
+        // 批量读取商铺详情，销量以排行榜为准
+        @SuppressWarnings("unchecked")
+        List<ZSetOperations.TypedTuple<String>> list = (List<ZSetOperations.TypedTuple<String>>) page.getList();
+        List<Long> ids = new ArrayList<>(list.size());
+        Map<Long, Double> scoreMap = new HashMap<>(list.size() * 2);
+        for (ZSetOperations.TypedTuple<String> tuple : list) {
+            Long shopId = Long.valueOf(tuple.getValue());
+            ids.add(shopId);
+            scoreMap.put(shopId, tuple.getScore());
+        }
+        List<Shop> shops = queryByIdsFromCache(ids);
+        if (RANK_SOLD.equals(sortBy)) {
+            shops.forEach(shop -> shop.setSold(scoreMap.get(shop.getId()).intValue()));
+        }
+        if (current != null) {
+            return Result.ok(shops);
         }
+        page.setList(shops);
+        return Result.ok(page);
+    }
 
-        // 3 not null
-        // 3.1 check if logic expires
-        RedisData redisData = JSONUtil.toBean(cachedShopJson, RedisData.class);
+    /**
+     * 从排行榜中查询一页，list是排行榜中的 (商铺id, 分数)，next是下一页的游标
+     */
+    private CursorResult queryShopRankPage(Integer typeId, String sortBy, Integer current, JSONArray keys) {
+        String key = (RANK_SOLD.equals(sortBy) ? SHOP_RANK_SOLD_KEY : SHOP_RANK_SCORE_KEY) + typeId;
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            loadShopRank(typeId.longValue());
+        }
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+
+        // 1.查询排行榜，多取一条判断是否还有下一页
+        Set<ZSetOperations.TypedTuple<String>> tuples;
+        double max = Double.POSITIVE_INFINITY;
+        int offset = 0;
+        if (current != null) {
+            long from = (long) (current - 1) * size;
+            tuples = stringRedisTemplate.opsForZSet().reverseRangeWithScores(key, from, from + size - 1);
+        } else {
+            if (keys != null) {
+                max = keys.getDouble(0);
+                offset = keys.getInt(1);
+            }
+            tuples = stringRedisTemplate.opsForZSet()
+                    .reverseRangeByScoreWithScores(key, Double.NEGATIVE_INFINITY, max, offset, size + 1);
+        }
+        List<ZSetOperations.TypedTuple<String>> list = tuples == null ? Collections.emptyList() : new ArrayList<>(tuples);
+        boolean hasMore = list.size() > size;
+        if (hasMore) {
+            list = list.subList(0, size);
+        }
 
-        JSONObject jsonObjectShop = (JSONObject) redisData.getData();
-        Shop shop = JSONUtil.toBean(jsonObjectShop, Shop.class);
-        // 3.2 not expire, return Shop
-        if (LocalDateTime.now().isBefore(redisData.getExpireTime())) {
-            return shop;
+        // 2.计算下一页的游标
+        double lastScore = max;
+        int sameScore = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : list) {
+            if (tuple.getScore() == lastScore) {
+                sameScore++;
+            } else {
+                lastScore = tuple.getScore();
+                sameScore = 1;
+            }
         }
+        if (lastScore == max) {
+            // 整页分数都和上一页最后一条相同，要加上上一页跳过的条数
+            sameScore += offset;
+        }
+        CursorResult result = new CursorResult();
+        result.setList(list);
+        result.setNext(hasMore ? CursorUtils.encode(lastScore, sameScore) : null);
+        return result;
+    }
 
-        // 4. expire, try to get lock
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean getLock = tryLock(lockKey);
+    /**
+     * 降级：按 (sold或score, id) 倒序查询数据库。排行榜的游标无法换算，降级时从第一页开始
+     */
+    private Result queryShopByRankFromDb(Integer typeId, String sortBy, Integer current, JSONArray keys) {
+        boolean bySold = RANK_SOLD.equals(sortBy);
+        String column = bySold ? "sold" : "score";
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        if (current != null) {
+            // 兼容按页码查询，不执行COUNT
+            return Result.ok(query()
+                    .eq("type_id", typeId)
+                    .orderByDesc(column, "id")
+                    .page(new Page<>(current, size, false))
+                    .getRecords());
+        }
+        // 分数更低，或者分数相同、id更小
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .and(keys != null, w -> w.lt(column, keys.getLong(0))
+                        .or(o -> o.eq(column, keys.getLong(0)).lt("id", keys.getLong(1))))
+                .orderByDesc(column, "id")
+                .last("LIMIT " + (size + 1))
+                .list();
+        return Result.ok(CursorUtils.of(shops, size,
+                shop -> new Object[]{bySold ? shop.getSold() : shop.getScore(), shop.getId(), DB_CURSOR}));
+    }
 
-        // 4.1 got lock
-        if (getLock) {
-            // 4.2 double check
-            String dcCachedShopJson = stringRedisTemplate.opsForValue().get(key);
-            RedisData dcRedisData = JSONUtil.toBean(dcCachedShopJson, RedisData.class);
+    /**
+     * 从数据库加载某个类型的销量和评分排行榜，已经存在的不会覆盖。
+     * 先写入临时key，再RENAMENX成排行榜，查询不会看到只加载了一部分的排行榜，加载期间其他请求写入的排行榜也不会被覆盖
+     */
+    @Override
+    public void loadShopRank(Long typeId) {
+        String soldKey = SHOP_RANK_SOLD_KEY + typeId;
+        String scoreKey = SHOP_RANK_SCORE_KEY + typeId;
+        boolean loadSold = !Boolean.TRUE.equals(stringRedisTemplate.hasKey(soldKey));
+        boolean loadScore = !Boolean.TRUE.equals(stringRedisTemplate.hasKey(scoreKey));
+        if (!loadSold && !loadScore) {
+            return;
+        }
+        List<Shop> shops = query().select("id", "sold", "score").eq("type_id", typeId).list();
+        if (shops.isEmpty()) {
+            return;
+        }
+        String suffix = ":loading:" + UUID.fastUUID().toString(true);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : shops) {
+                if (loadSold) {
+                    conn.zAdd(soldKey + suffix, shop.getSold() == null ? 0 : shop.getSold(), shop.getId().toString());
+                }
+                if (loadScore) {
+                    conn.zAdd(scoreKey + suffix, shop.getScore() == null ? 0 : shop.getScore(), shop.getId().toString());
+                }
+            }
+            return null;
+        });
+        if (loadSold) {
+            renameIfAbsent(soldKey + suffix, soldKey);
+        }
+        if (loadScore) {
+            renameIfAbsent(scoreKey + suffix, scoreKey);
+        }
+    }
+
+    private void renameIfAbsent(String tempKey, String key) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.renameIfAbsent(tempKey, key))) {
+            // 其他请求已经加载好了
+            stringRedisTemplate.delete(tempKey);
+        }
+    }
 
-            if (LocalDateTime.now().isBefore(dcRedisData.getExpireTime())) {
-                log.info("DC检测到已有缓存，直接返回");
-                return JSONUtil.toBean((JSONObject) dcRedisData.getData(), Shop.class);
+    /**
+     * 下单时累加商铺销量：在下单的事务中写入tb_shop.sold，排行榜丢失后可以从数据库重新加载；
+     * 事务提交后再增加排行榜中的分数，并通知内存索引（联想按销量排序）批量刷新
+     */
+    @Override
+    @Transactional
+    public void incrSold(Long shopId, int count) {
+        update().setSql("sold = sold + " + count).eq("id", shopId).update();
+        // 回调在调用方（例如下单）的事务提交时执行，此时的当前代理是调用方的代理，不能转成IShopService，直接查库取类型。
+        // 订单已经提交，这里的任何异常都不能再抛给调用方
+        TransactionUtils.afterCommit(() -> {
+            shopIndexManager.onShopSold(shopId);
+            try {
+                Shop shop = getById(shopId);
+                if (shop != null) {
+                    updateRank(SHOP_RANK_SOLD_KEY + shop.getTypeId(), RANK_INCR, shopId, count);
+                }
+            } catch (Exception e) {
+                log.warn("商铺 {} 销量排行榜更新失败：{}", shopId, e.getMessage());
             }
+        });
+    }
 
-            // 4.3 rebuilt cache
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    log.info("重建缓存");
-                    this.saveShop2Redis(id, 20L); // 为了方便测试，设置为20s有效期
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unlock(lockKey);
+    /**
+     * 批量导入的一批商铺入库后，把GEO、商铺缓存、排行榜用pipeline一次写入，再更新内存索引
+     */
+    @Override
+    public void afterShopsImported(List<Shop> shops) {
+        if (shops.isEmpty()) {
+            return;
+        }
+        // 1.重新读取，带上数据库生成的时间字段
+        List<Shop> latest = listByIds(shops.stream().map(Shop::getId).collect(Collectors.toList()));
+        // 2.GEO
+        loadShopGeo(latest);
+        // 3.商铺缓存
+        Map<String, Shop> values = new HashMap<>(latest.size());
+        latest.forEach(shop -> values.put(SHOP_CACHE.prefix() + shop.getId(), shop));
+        cacheClient.setBatch(values, SHOP_CACHE.strategy(), SHOP_CACHE.ttl(), SHOP_CACHE.unit());
+        // 4.排行榜只写入已经存在的，不存在的会在查询时整体加载
+        Set<Long> typeIds = latest.stream().map(Shop::getTypeId).collect(Collectors.toSet());
+        Set<String> boards = typeIds.stream()
+                .flatMap(typeId -> Stream.of(SHOP_RANK_SOLD_KEY + typeId, SHOP_RANK_SCORE_KEY + typeId))
+                .filter(key -> Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)))
+                .collect(Collectors.toSet());
+        if (!boards.isEmpty()) {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Shop shop : latest) {
+                    String soldKey = SHOP_RANK_SOLD_KEY + shop.getTypeId();
+                    String scoreKey = SHOP_RANK_SCORE_KEY + shop.getTypeId();
+                    if (boards.contains(soldKey)) {
+                        conn.zAdd(soldKey, shop.getSold(), shop.getId().toString());
+                    }
+                    if (boards.contains(scoreKey)) {
+                        conn.zAdd(scoreKey, shop.getScore(), shop.getId().toString());
+                    }
                 }
+                return null;
             });
         }
+        // 5.分页缓存按类型失效
+        typeIds.forEach(typeId -> cacheClient.incrVersion(CACHE_SHOP_TYPE_VERSION_KEY + typeId));
+        // 6.内存索引
+        shopIndexManager.onShopsImported(latest);
+    }
 
-        // 4.1 fail to get lock, return Shop (May decrease consistency but increase availability.)
-        return shop;
+    /**
+     * 商铺新增或修改后同步排行榜：类型变化时从旧类型的排行榜移到新类型，评分变化时更新评分
+     */
+    private void syncShopRank(Shop old, Shop latest) {
+        int latestSold = latest.getSold() == null ? 0 : latest.getSold();
+        int latestScore = latest.getScore() == null ? 0 : latest.getScore();
+        if (old != null && !Objects.equals(old.getTypeId(), latest.getTypeId())) {
+            Double sold = stringRedisTemplate.opsForZSet()
+                    .score(SHOP_RANK_SOLD_KEY + old.getTypeId(), latest.getId().toString());
+            stringRedisTemplate.opsForZSet().remove(SHOP_RANK_SOLD_KEY + old.getTypeId(), latest.getId().toString());
+            stringRedisTemplate.opsForZSet().remove(SHOP_RANK_SCORE_KEY + old.getTypeId(), latest.getId().toString());
+            updateRank(SHOP_RANK_SOLD_KEY + latest.getTypeId(), RANK_SET, latest.getId(),
+                    sold != null ? sold : latestSold);
+            updateRank(SHOP_RANK_SCORE_KEY + latest.getTypeId(), RANK_SET, latest.getId(), latestScore);
+            return;
+        }
+        if (old == null) {
+            updateRank(SHOP_RANK_SOLD_KEY + latest.getTypeId(), RANK_SET, latest.getId(), latestSold);
+        }
+        if (old == null || !Objects.equals(old.getScore(), latest.getScore())) {
+            updateRank(SHOP_RANK_SCORE_KEY + latest.getTypeId(), RANK_SET, latest.getId(), latestScore);
+        }
+    }
+
+    private void updateRank(String key, String mode, Long shopId, Number score) {
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.execute(RANK_SCRIPT, Collections.singletonList(key),
+                mode, shopId.toString(), String.valueOf(score)));
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current, String cursor) {
+        if (StrUtil.isNotBlank(name)) {
+            return searchShopByName(name, current, cursor);
+        }
+        // 没有关键字，按id列出全部商铺
+        if (current != null) {
+            // 兼容按页码查询，不再执行COUNT
+            Page<Shop> page = query().page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 按 id 游标分页
+        JSONArray keys = CursorUtils.decode(cursor, 1);
+        if (StrUtil.isNotBlank(cursor) && keys == null) {
+            return Result.fail("分页参数无效");
+        }
+        List<Shop> shops = query()
+                .gt(keys != null, "id", keys == null ? null : keys.getLong(0))
+                .orderByAsc("id")
+                .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        return Result.ok(CursorUtils.of(shops, SystemConstants.MAX_PAGE_SIZE, shop -> new Object[]{shop.getId()}));
+    }
+
+    @Override
+    public Result suggest(String prefix, Integer limit) {
+        if (StrUtil.isBlank(prefix)) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(shopSuggestIndex.suggest(prefix, Math.min(limit, ShopSuggestIndex.TOP_N)));
+    }
+
+    /**
+     * 按类型、商圈、价格区间、最低评分筛选商铺，走内存位图索引，按id游标分页
+     */
+    @Override
+    public Result filterShops(List<Long> typeIds, List<String> areas, List<Integer> priceBands, Integer minScore,
+                              String cursor) {
+        JSONArray keys = CursorUtils.decode(cursor, 1);
+        if (StrUtil.isNotBlank(cursor) && keys == null) {
+            return Result.fail("分页参数无效");
+        }
+        long lastId = keys == null ? 0 : keys.getLong(0);
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        // 多取一条，判断是否还有下一页
+        List<Long> ids = shopFilterIndex.filter(typeIds, areas, priceBands, minScore, lastId, size + 1);
+        boolean hasMore = ids.size() > size;
+        if (hasMore) {
+            ids = ids.subList(0, size);
+        }
+        CursorResult result = new CursorResult();
+        result.setList(queryByIdsFromCache(ids));
+        result.setNext(hasMore ? CursorUtils.encode(ids.get(size - 1)) : null);
+        return Result.ok(result);
     }
 
     /**
-     * 缓存击穿解决：互斥锁上锁
+     * 按名称关键字搜索，走内存倒排索引。结果按相关度排序，游标中保存的是偏移量
      */
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        // 包装类可能为null，调用BooleanUtil.isTrue进行拆箱避免空指针异常。
-        return BooleanUtil.isTrue(flag);
+    private Result searchShopByName(String name, Integer current, String cursor) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        int from;
+        if (current != null) {
+            from = (current - 1) * size;
+        } else {
+            JSONArray keys = CursorUtils.decode(cursor, 1);
+            if (StrUtil.isNotBlank(cursor) && keys == null) {
+                return Result.fail("分页参数无效");
+            }
+            from = keys == null ? 0 : keys.getInt(0);
+        }
+        if (from < 0) {
+            return Result.fail("分页参数无效");
+        }
+        // 多取一条，判断是否还有下一页
+        List<Long> ids = shopNameIndex.search(name, from + size + 1);
+        boolean hasMore = ids.size() > from + size;
+        List<Shop> shops = ids.size() <= from
+                ? Collections.emptyList()
+                : queryByIdsFromCache(ids.subList(from, Math.min(ids.size(), from + size)));
+        if (current != null) {
+            return Result.ok(shops);
+        }
+        CursorResult result = new CursorResult();
+        result.setList(shops);
+        result.setNext(hasMore ? CursorUtils.encode(from + size) : null);
+        return Result.ok(result);
     }
 
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 从内存空间索引查询附近商铺，不访问Redis
+     */
+    private List<Shop> queryNearbyFromIndex(Integer typeId, double x, double y, int from, int end) {
+        List<ShopDistance> nearest = shopSpatialIndex.nearest(typeId.longValue(), x, y, end, NEARBY_RADIUS_METERS);
+        if (nearest.size() <= from) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(nearest.size() - from);
+        Map<Long, Double> distanceMap = new HashMap<>(nearest.size() - from);
+        nearest.stream().skip(from).forEach(d -> {
+            ids.add(d.getShopId());
+            distanceMap.put(d.getShopId(), d.getDistance());
+        });
+        List<Shop> shops = queryByIdsFromCache(ids);
+        shops.forEach(shop -> shop.setDistance(distanceMap.get(shop.getId())));
+        return shops;
     }
 
+    /**
+     * 把商铺坐标按类型写入GEO，一次pipeline提交
+     */
     @Override
-    @Transactional // 单体系统直接用事务。
-    public Result update(Shop shop) {
-        // verify the id of shop
-        if (shop.getId() == null) {
-            return Result.fail("店铺ID不能为空");
+    public void loadShopGeo(List<Shop> shops) {
+        if (shops.isEmpty()) {
+            return;
         }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : shops) {
+                if (shop.getX() == null || shop.getY() == null) {
+                    continue;
+                }
+                conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), shop.getId().toString());
+            }
+            return null;
+        });
+    }
 
-        // update database
-        super.updateById(shop);
+    private GeoResults<RedisGeoCommands.GeoLocation<String>> searchNearby(String key, double x, double y, int limit) {
+        // Spring Data Redis 2.3没有GEOSEARCH，用等价的GEORADIUS：按距离升序、带距离、取前limit个
+        return stringRedisTemplate.opsForGeo().radius(
+                key,
+                new Circle(new Point(x, y), new Distance(NEARBY_RADIUS_METERS, RedisGeoCommands.DistanceUnit.METERS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(limit));
+    }
 
-        // delete cache
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
-        return Result.ok();
+    /**
+     * 根据id批量查询商铺，先批量读商铺缓存，未命中的一次查库，结果按ids的顺序返回
+     */
+    private List<Shop> queryByIdsFromCache(List<Long> ids) {
+        return cacheClient.multiGet(SHOP_CACHE.strategy(), SHOP_CACHE.prefix(), ids, Shop.class,
+                this::listByIds, Shop::getId, SHOP_CACHE.ttl(), SHOP_CACHE.unit());
     }
 
     /**
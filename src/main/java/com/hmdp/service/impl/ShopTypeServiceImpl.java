@@ -2,20 +2,30 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.TransactionUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_LIST;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_CHANGED_CHANNEL;
 
 /**
  * <p>
@@ -29,35 +39,136 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_LIST;
 @Slf4j
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    /**
+     * 数据库中没有类型时，隔多久再查一次
+     */
+    private static final long EMPTY_RETRY_MILLIS = 5000L;
+
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * 本节点的类型列表快照。首页每次都会请求，直接读内存，不访问Redis，也不重新序列化
+     */
+    private volatile ShopTypeSnapshot snapshot;
+    /**
+     * 快照为空时，下一次允许重新加载的时间
+     */
+    private volatile long emptyRetryAt;
+
     @Override
     public Result queryTypeList() {
-        // query cache
-        String shopTypeListStr = stringRedisTemplate.opsForValue().get(CACHE_SHOP_LIST);
-
-        // not null, return ok
-        if (StrUtil.isNotBlank(shopTypeListStr)) {
-            log.info("成功从缓存中获取到了店铺类型列表的信息：\n{}", shopTypeListStr);
-            List<ShopType> cachedShopTypeList = JSONUtil.toList(shopTypeListStr, ShopType.class);
-            return Result.ok(cachedShopTypeList);
+        List<ShopType> types = getSnapshot().getTypes();
+        if (types.isEmpty()) {
+            return Result.fail("没有店铺类型列表");
         }
+        return Result.ok(types);
+    }
 
-        // otherwise, query database
-        List<ShopType> shopTypeList = query().orderByAsc("sort").list();
+    /**
+     * 快照为空（数据库中还没有类型，或者加载时出错）时不一直使用，每隔EMPTY_RETRY_MILLIS重新加载一次
+     */
+    @Override
+    public ShopTypeSnapshot getSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (needLoad(current)) {
+            synchronized (this) {
+                if (needLoad(snapshot)) {
+                    snapshot = load();
+                    if (snapshot.getTypes().isEmpty()) {
+                        emptyRetryAt = System.currentTimeMillis() + EMPTY_RETRY_MILLIS;
+                    }
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
 
-        // null, return fail
-        if (CollectionUtil.isEmpty(shopTypeList)) {
-            log.info("数据库中没有店铺店铺类型列表");
-            return Result.fail("没有店铺类型列表");
+    /**
+     * 类型的新增、修改、删除，事务提交后通知所有节点重新加载
+     */
+    @Override
+    @Transactional
+    public boolean save(ShopType entity) {
+        boolean saved = super.save(entity);
+        TransactionUtils.afterCommit(this::publishTypesChanged);
+        return saved;
+    }
+
+    @Override
+    @Transactional
+    public boolean updateById(ShopType entity) {
+        boolean updated = super.updateById(entity);
+        TransactionUtils.afterCommit(this::publishTypesChanged);
+        return updated;
+    }
+
+    @Override
+    @Transactional
+    public boolean removeById(Serializable id) {
+        boolean removed = super.removeById(id);
+        TransactionUtils.afterCommit(this::publishTypesChanged);
+        return removed;
+    }
+
+    /**
+     * 重新加载快照，收到类型变化的通知时调用
+     */
+    @Override
+    public void reloadSnapshot() {
+        ShopTypeSnapshot loaded = load();
+        synchronized (this) {
+            snapshot = loaded;
         }
+    }
 
-        // not null, add to cache
-        // 店铺类型是低一致性的场景，可以借助Redis的内存淘汰机制保证低一致性。
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_LIST, JSONUtil.toJsonStr(shopTypeList));
+    /**
+     * 修改tb_shop_type之后调用：删除Redis中的列表，再通知所有节点（包括本节点）重新加载
+     */
+    @Override
+    public void publishTypesChanged() {
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.delete(CACHE_SHOP_LIST));
+        reloadSnapshot();
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.convertAndSend(SHOP_TYPE_CHANGED_CHANNEL, ""));
+    }
 
-        // return ok.
-        return Result.ok(shopTypeList);
+    private boolean needLoad(ShopTypeSnapshot current) {
+        return current == null || current.getTypes().isEmpty() && System.currentTimeMillis() >= emptyRetryAt;
+    }
+
+    private ShopTypeSnapshot load() {
+        // 1.查询Redis，各节点共享同一份列表，避免每个节点都查库
+        String json = redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().get(CACHE_SHOP_LIST), () -> null);
+        List<ShopType> types;
+        if (StrUtil.isNotBlank(json)) {
+            types = JSONUtil.toList(json, ShopType.class);
+        } else {
+            // 2.查询数据库，写回Redis
+            types = query().orderByAsc("sort").list();
+            if (CollectionUtil.isEmpty(types)) {
+                log.info("数据库中没有店铺类型列表");
+            } else {
+                // 店铺类型是低一致性的场景，可以借助Redis的内存淘汰机制保证低一致性。
+                String value = JSONUtil.toJsonStr(types);
+                redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().set(CACHE_SHOP_LIST, value));
+            }
+        }
+        // 3.用Spring MVC的ObjectMapper序列化响应体，和普通接口的返回格式一致
+        types = Collections.unmodifiableList(types);
+        Result result = types.isEmpty() ? Result.fail("没有店铺类型列表") : Result.ok(types);
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        return new ShopTypeSnapshot(types, body, "\"" + DigestUtil.md5Hex(body) + "\"");
     }
 }
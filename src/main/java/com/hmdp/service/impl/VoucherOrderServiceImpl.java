@@ -3,9 +3,13 @@ package com.hmdp.service.impl;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.IShopService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.RedisCircuitBreaker;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -34,8 +38,21 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Autowired
     private RedisIdWorker redisIdWorker;
 
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Autowired
+    private IVoucherService voucherService;
+
+    @Autowired
+    private IShopService shopService;
+
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // Redis熔断时生成不了订单id，直接快速失败，避免请求堆到数据库
+        if (!redisCircuitBreaker.isAvailable()) {
+            return Result.fail("系统繁忙，请稍后重试");
+        }
         // 获取优惠券信息
         SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
         // 判断在有效时间内
@@ -110,7 +127,13 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         voucherOrder.setVoucherId(voucherId);
         save(voucherOrder);
 
-        // 7.返回订单id
+        // 8.累加商铺销量，和订单在同一个事务中，提交后更新销量排行榜
+        Voucher voucher = voucherService.getById(voucherId);
+        if (voucher != null) {
+            shopService.incrSold(voucher.getShopId(), 1);
+        }
+
+        // 9.返回订单id
         return Result.ok(orderId);
     }
 }
@@ -0,0 +1,58 @@
+package com.hmdp.task;
+
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_EPOCH_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_HOT_DECAY_KEY;
+
+/**
+ * 笔记热度定时衰减：每个周期所有分数乘以衰减系数，老笔记的热度逐渐降低，新的点赞和评论才能排到前面。
+ * 用ZUNIONSTORE把热度榜和自己按权重合并，一条命令完成，不需要逐个读写分数。
+ * 每个节点都会触发，由脚本中的锁保证每个周期只衰减一次。
+ */
+@Slf4j
+@Component
+public class BlogHotDecayer {
+
+    private static final DefaultRedisScript<Long> DECAY_SCRIPT;
+    static {
+        DECAY_SCRIPT = new DefaultRedisScript<>();
+        DECAY_SCRIPT.setLocation(new ClassPathResource("hot_decay.lua"));
+        DECAY_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 锁比周期略短，下个周期一定能拿到
+     */
+    private static final long LOCK_MILLIS = SystemConstants.BLOG_HOT_DECAY_INTERVAL_MILLIS - 60_000L;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Scheduled(fixedRate = SystemConstants.BLOG_HOT_DECAY_INTERVAL_MILLIS,
+            initialDelay = SystemConstants.BLOG_HOT_DECAY_INTERVAL_MILLIS)
+    public void decay() {
+        Long epoch = redisCircuitBreaker.execute(() -> stringRedisTemplate.execute(DECAY_SCRIPT,
+                Arrays.asList(BLOG_HOT_KEY, BLOG_HOT_EPOCH_KEY, LOCK_BLOG_HOT_DECAY_KEY),
+                String.valueOf(SystemConstants.BLOG_HOT_DECAY_FACTOR),
+                String.valueOf(SystemConstants.BLOG_HOT_MAX_SIZE),
+                String.valueOf(LOCK_MILLIS)), () -> null);
+        if (epoch != null && epoch > 0) {
+            log.debug("笔记热度衰减完成，第 {} 次", epoch);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.hmdp.task;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.lang.UUID;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.utils.RedisCircuitBreaker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_BASE_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_DIRTY_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_FLUSHING_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_LIKED_FLUSH_KEY;
+
+/**
+ * 把Redis中的点赞数定时批量写回tb_blog.liked，供数据库按点赞数排序使用。
+ * 1. 点赞时笔记id进入待写回集合（ZSET，分数是第一次变化的时间）；
+ * 2. 每次写回先把待写回集合RENAMENX成处理中集合，新的点赞继续写入新的待写回集合，互不影响；
+ * 3. 写入的点赞数 = 基数 + ZCARD，是绝对值而不是增量，重复写回也不会算错。
+ *    基数是该笔记第一次写回前tb_blog.liked中已有的点赞数（这些点赞不在ZSET中），第一次写回时从数据库读取并HSETNX保存；
+ * 4. 每批写回成功后才从处理中集合ZREM这一批笔记，不整体删除。进程崩溃或者写库失败时剩下的保留在Redis中，下次（包括重启后）继续处理；
+ *    处理中集合删空之前RENAMENX不会成功，新的待写回集合不会被误删。
+ * 5. 多个节点用锁互斥，同一时间只有一个节点在写回。
+ */
+@Slf4j
+@Component
+public class BlogLikeFlusher {
+
+    /**
+     * 每条UPDATE最多更新的笔记数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * 锁的过期时间，远大于一次写回的耗时；万一过期，按批ZREM也保证不会漏写
+     */
+    private static final long LOCK_MILLIS = 60_000L;
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisCircuitBreaker redisCircuitBreaker;
+    private final BlogMapper blogMapper;
+
+    /**
+     * 最早一个还没写回的点赞已经等待的时间
+     */
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final Timer flushLatency;
+    private final Counter flushedBlogs;
+
+    public BlogLikeFlusher(StringRedisTemplate stringRedisTemplate, RedisCircuitBreaker redisCircuitBreaker,
+                           BlogMapper blogMapper, MeterRegistry meterRegistry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
+        this.blogMapper = blogMapper;
+        Gauge.builder("hmdp.blog.like.flush.lag", lagMillis, AtomicLong::get)
+                .baseUnit("milliseconds").register(meterRegistry);
+        this.flushLatency = Timer.builder("hmdp.blog.like.flush.latency").register(meterRegistry);
+        this.flushedBlogs = Counter.builder("hmdp.blog.like.flush.blogs").register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.blog.like-flush-interval-ms:5000}")
+    public void flush() {
+        if (!redisCircuitBreaker.isAvailable()) {
+            return;
+        }
+        String token = UUID.fastUUID().toString(true);
+        try {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                    .setIfAbsent(LOCK_BLOG_LIKED_FLUSH_KEY, token, LOCK_MILLIS, TimeUnit.MILLISECONDS))) {
+                // 其他节点正在写回
+                return;
+            }
+            try {
+                flushLatency.record(this::flushOnce);
+            } finally {
+                stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(LOCK_BLOG_LIKED_FLUSH_KEY), token);
+            }
+        } catch (Exception e) {
+            log.error("点赞数写回数据库失败，下次重试", e);
+        } finally {
+            redisCircuitBreaker.execute(this::updateLag);
+        }
+    }
+
+    private void flushOnce() {
+        // 1.上次的处理中集合还在（写库失败或者进程崩溃），先处理它；否则取走当前的待写回集合
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKED_FLUSHING_KEY))
+                && !Boolean.TRUE.equals(stringRedisTemplate.renameIfAbsent(BLOG_LIKED_DIRTY_KEY, BLOG_LIKED_FLUSHING_KEY))) {
+            // 没有待写回的笔记
+            return;
+        }
+        Set<String> ids = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_FLUSHING_KEY, 0, -1);
+        if (CollUtil.isEmpty(ids)) {
+            return;
+        }
+        // 2.分批读取点赞基数和ZSET中的点赞数，写入数据库
+        List<String> all = new ArrayList<>(ids);
+        for (int from = 0; from < all.size(); from += BATCH_SIZE) {
+            List<String> batch = all.subList(from, Math.min(all.size(), from + BATCH_SIZE));
+            List<Object> counts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                batch.forEach(id -> conn.zCard(BLOG_LIKED_KEY + id));
+                return null;
+            });
+            List<Object> bases = loadBases(batch);
+            List<Blog> blogs = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Blog blog = new Blog();
+                blog.setId(Long.valueOf(batch.get(i)));
+                blog.setLiked(Integer.parseInt((String) bases.get(i)) + ((Long) counts.get(i)).intValue());
+                blogs.add(blog);
+            }
+            blogMapper.updateLikedBatch(blogs);
+            flushedBlogs.increment(blogs.size());
+            // 3.只删除写回成功的这一批，删空后集合自动删除
+            stringRedisTemplate.opsForZSet().remove(BLOG_LIKED_FLUSHING_KEY, batch.toArray());
+        }
+        log.debug("点赞数写回数据库，笔记 {} 篇", all.size());
+    }
+
+    /**
+     * 读取一批笔记的点赞基数，没有基数的（第一次写回）用数据库中当前的点赞数初始化。
+     * 只有写回会修改tb_blog.liked，而写回前一定已经设置了基数，所以此时读到的就是ZSET之外的点赞数；
+     * 用HSETNX保证多个实例并发初始化时只有第一个生效，之后统一重新读取
+     */
+    private List<Object> loadBases(List<String> batch) {
+        List<Object> bases = stringRedisTemplate.opsForHash().multiGet(BLOG_LIKED_BASE_KEY, new ArrayList<>(batch));
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (bases.get(i) == null) {
+                missing.add(Long.valueOf(batch.get(i)));
+            }
+        }
+        if (missing.isEmpty()) {
+            return bases;
+        }
+        Map<Long, Integer> liked = blogMapper.selectList(new QueryWrapper<Blog>().select("id", "liked").in("id", missing))
+                .stream().collect(Collectors.toMap(Blog::getId, blog -> blog.getLiked() == null ? 0 : blog.getLiked()));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            // 已删除的笔记基数为0，UPDATE不会命中任何行
+            missing.forEach(id -> conn.hSetNX(BLOG_LIKED_BASE_KEY, id.toString(),
+                    String.valueOf(liked.getOrDefault(id, 0))));
+            return null;
+        });
+        return stringRedisTemplate.opsForHash().multiGet(BLOG_LIKED_BASE_KEY, new ArrayList<>(batch));
+    }
+
+    /**
+     * 等待最久的笔记：处理中集合（如果还在）或者待写回集合中分数最小的
+     */
+    private void updateLag() {
+        long oldest = Long.MAX_VALUE;
+        for (String key : new String[]{BLOG_LIKED_FLUSHING_KEY, BLOG_LIKED_DIRTY_KEY}) {
+            Set<ZSetOperations.TypedTuple<String>> first = stringRedisTemplate.opsForZSet().rangeWithScores(key, 0, 0);
+            for (ZSetOperations.TypedTuple<String> tuple : first == null
+                    ? Collections.<ZSetOperations.TypedTuple<String>>emptySet() : first) {
+                oldest = Math.min(oldest, tuple.getScore().longValue());
+            }
+        }
+        lagMillis.set(oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest);
+    }
+}
@@ -0,0 +1,120 @@
+package com.hmdp.task;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.hmdp.service.impl.ShopServiceImpl.SHOP_CACHE;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+
+/**
+ * 启动时缓存预热。
+ * 分页读取商铺（详情缓存和GEO）、商铺排行榜、笔记热度榜、商铺类型，按批pipeline写入Redis，写入并发有上限。
+ * ApplicationRunner执行完之前，Spring Boot不会发布ReadinessState.ACCEPTING_TRAFFIC，
+ * 所以预热期间 /actuator/health/readiness 一直是OUT_OF_SERVICE，预热完成或超时后才开始接流量。
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    private static final int PAGE_SIZE = 500;
+    private static final int PARALLELISM = 4;
+    private static final long TIMEOUT_SECONDS = 60L;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long begin = System.currentTimeMillis();
+        long deadline = begin + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        // 队列有界，写满后由读库的线程自己执行写入，读库速度自然被限制住
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(PARALLELISM * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        try {
+            tasks.add(CompletableFuture.runAsync(shopTypeService::reloadSnapshot, executor));
+            tasks.add(CompletableFuture.runAsync(this::warmUpShopRanks, executor));
+            tasks.add(CompletableFuture.runAsync(this::warmUpHotBlogs, executor));
+            int shops = 0;
+            long lastId = 0;
+            while (System.currentTimeMillis() < deadline) {
+                // 按主键翻页，避免深分页
+                List<Shop> page = shopService.query()
+                        .gt("id", lastId).orderByAsc("id").last("LIMIT " + PAGE_SIZE).list();
+                if (page.isEmpty()) {
+                    break;
+                }
+                lastId = page.get(page.size() - 1).getId();
+                shops += page.size();
+                tasks.add(CompletableFuture.runAsync(() -> warmUpShops(page), executor));
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]))
+                    .get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            log.info("缓存预热完成，商铺 {} 家，耗时 {} ms", shops, System.currentTimeMillis() - begin);
+        } catch (TimeoutException e) {
+            log.warn("缓存预热超时（{}s），未完成的部分由请求触发加载", TIMEOUT_SECONDS);
+        } catch (ExecutionException e) {
+            log.error("缓存预热失败，未完成的部分由请求触发加载", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void warmUpShops(List<Shop> shops) {
+        Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+        shops.forEach(shop -> values.put(SHOP_CACHE.prefix() + shop.getId(), shop));
+        cacheClient.setBatch(values, SHOP_CACHE.strategy(), SHOP_CACHE.ttl(), SHOP_CACHE.unit());
+        shopService.loadShopGeo(shops);
+    }
+
+    /**
+     * 按类型加载销量、评分排行榜，已经存在的排行榜不覆盖，保留下单时累加的销量
+     */
+    private void warmUpShopRanks() {
+        shopTypeService.query().select("id").list()
+                .forEach(type -> shopService.loadShopRank(type.getId()));
+    }
+
+    /**
+     * 加载笔记热度榜，已经存在时不覆盖，保留运行中累积的热度
+     */
+    private void warmUpHotBlogs() {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            blogService.loadHotBlogs();
+        }
+    }
+}
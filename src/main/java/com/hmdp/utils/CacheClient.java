@@ -1,17 +1,29 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -24,14 +36,46 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final RedisCircuitBreaker redisCircuitBreaker;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final CacheMetrics cacheMetrics;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheRebuildScheduler cacheRebuildScheduler;
+
+    /**
+     * 本地旧数据快照，只在Redis熔断时使用
+     */
+    private static final int STALE_SNAPSHOT_CAPACITY = 10000;
+    private final LRUCache<String, String> staleSnapshot = CacheUtil.newLRUCache(STALE_SNAPSHOT_CAPACITY);
+
+    /**
+     * Redis熔断时，回源数据库的并发上限
+     */
+    private static final int DB_FALLBACK_PERMITS = 20;
+    private static final long DB_FALLBACK_WAIT_MILLIS = 200L;
+    private final Semaphore dbFallbackLimiter = new Semaphore(DB_FALLBACK_PERMITS);
+
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    private static final String VALIDATOR_SUFFIX = ":validator";
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisCircuitBreaker redisCircuitBreaker,
+                       CacheMetrics cacheMetrics, HotKeyDetector hotKeyDetector,
+                       CacheRebuildScheduler cacheRebuildScheduler) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
+        this.cacheMetrics = cacheMetrics;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheRebuildScheduler = cacheRebuildScheduler;
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        String json = JSONUtil.toJsonStr(value);
+        staleSnapshot.put(key, json);
+        hotKeyDetector.evictLocal(key);
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().set(key, json, time, unit));
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
@@ -40,7 +84,198 @@ public class CacheClient {
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
         // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        String json = JSONUtil.toJsonStr(redisData);
+        staleSnapshot.put(key, json);
+        hotKeyDetector.evictLocal(key);
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().set(key, json));
+    }
+
+    /**
+     * 批量写入缓存，一次pipeline提交，用于预热等批量场景。
+     * 普通TTL会加上随机抖动，避免同一批key同时过期造成缓存雪崩。
+     */
+    public void setBatch(Map<String, ?> values, CacheStrategy strategy, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        long seconds = unit.toSeconds(time);
+        LocalDateTime now = LocalDateTime.now();
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            values.forEach((key, value) -> {
+                if (strategy == CacheStrategy.LOGICAL_EXPIRE) {
+                    RedisData redisData = new RedisData();
+                    redisData.setData(value);
+                    redisData.setExpireTime(now.plusSeconds(seconds));
+                    conn.set(key, JSONUtil.toJsonStr(redisData));
+                } else {
+                    long jitter = RandomUtil.randomLong(seconds / 10 + 1);
+                    conn.setEx(key, seconds + jitter, JSONUtil.toJsonStr(value));
+                }
+            });
+            return null;
+        }));
+    }
+
+    /**
+     * 批量查询：一次MGET，未命中的id一次性回源数据库，再用一个pipeline写回缓存。
+     * 缓存格式和按策略单个查询时相同；逻辑过期的数据过期后按未命中处理。
+     * @param dbFallback 根据未命中的id批量查询数据库，返回顺序不限
+     * @param idOf 取数据库结果的id，用于和请求的id对应
+     * @return 按ids的顺序返回，不存在的id被跳过
+     */
+    public <R, ID> List<R> multiGet(CacheStrategy strategy, String keyPrefix, List<ID> ids, Class<R> type,
+                                    Function<List<ID>, List<R>> dbFallback, Function<R, ID> idOf,
+                                    Long time, TimeUnit unit) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.热点key先读本地缓存，其余的一次MGET
+        List<String> keys = new ArrayList<>(ids.size());
+        ids.forEach(id -> keys.add(keyPrefix + id));
+        List<String> values = multiGet(keyPrefix, strategy, keys);
+
+        // 2.解析命中的数据，收集未命中的id
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        List<ID> missIds = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = values.get(i);
+            if (StrUtil.isBlank(json)) {
+                if (json != null) {
+                    cacheMetrics.nullHit(keyPrefix, strategy);
+                } else {
+                    cacheMetrics.miss(keyPrefix, strategy);
+                    missIds.add(ids.get(i));
+                }
+                continue;
+            }
+            if (strategy == CacheStrategy.LOGICAL_EXPIRE) {
+                RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+                if (redisData.getExpireTime().isBefore(now)) {
+                    cacheMetrics.staleHit(keyPrefix, strategy);
+                    missIds.add(ids.get(i));
+                    continue;
+                }
+                found.put(ids.get(i), JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            } else {
+                found.put(ids.get(i), JSONUtil.toBean(json, type));
+            }
+            cacheMetrics.hit(keyPrefix, strategy);
+        }
+
+        // 3.未命中的一次回源，写回缓存，数据库中也没有的写入空值
+        if (!missIds.isEmpty()) {
+            cacheMetrics.rebuild(keyPrefix, strategy);
+            List<R> loaded = queryDb(keyPrefix, strategy, dbFallback, missIds);
+            Map<String, R> toCache = new HashMap<>(loaded.size() * 2);
+            for (R r : loaded) {
+                found.put(idOf.apply(r), r);
+                toCache.put(keyPrefix + idOf.apply(r), r);
+            }
+            evictLocal(toCache.keySet());
+            setBatch(toCache, strategy, time, unit);
+            if (strategy != CacheStrategy.LOGICAL_EXPIRE) {
+                List<String> nullKeys = new ArrayList<>();
+                missIds.stream().filter(id -> !found.containsKey(id)).forEach(id -> nullKeys.add(keyPrefix + id));
+                setNullBatch(nullKeys);
+            }
+        }
+
+        // 4.按请求的顺序返回
+        List<R> result = new ArrayList<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取版本号，不存在时为0。
+     * 版本号拼在一组缓存的key里，改变版本号就能让整组缓存失效，不需要SCAN和DEL；旧版本的key等TTL自然过期。
+     */
+    public long getVersion(String key) {
+        String version = redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().get(key), () -> null);
+        return version == null ? 0L : Long.parseLong(version);
+    }
+
+    /**
+     * 版本号加一。版本号本身不设置过期时间，否则重新从0开始可能读到之前同版本号的旧缓存
+     */
+    public void incrVersion(String key) {
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().increment(key));
+    }
+
+    /**
+     * 按指定策略查询
+     */
+    public <R, ID> R query(CacheStrategy strategy, String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                           Long time, TimeUnit unit) {
+        switch (strategy) {
+            case MUTEX:
+                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+            case LOGICAL_EXPIRE:
+                return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit);
+            default:
+                return queryWithPassThrough(keyPrefix, id, type, dbFallback, time, unit);
+        }
+    }
+
+    /**
+     * 写入缓存值对应的校验值（例如数据的更新时间），用于HTTP条件请求；删除缓存时一起删除
+     */
+    public void setValidator(String key, String validator, Long time, TimeUnit unit) {
+        redisCircuitBreaker.execute(() ->
+                stringRedisTemplate.opsForValue().set(key + VALIDATOR_SUFFIX, validator, time, unit));
+    }
+
+    /**
+     * 读取校验值，不存在或者Redis不可用时返回null
+     */
+    public String getValidator(String key) {
+        return redisCircuitBreaker.execute(
+                () -> stringRedisTemplate.opsForValue().get(key + VALIDATOR_SUFFIX), () -> null);
+    }
+
+    /**
+     * 删除缓存，同时清掉本节点的本地副本。Redis熔断或者异常时抛出异常，不能静默跳过，否则旧数据会一直留到过期。
+     * 写数据库之后删缓存请使用CacheInvalidator，它会等事务提交后再删除，失败时重试。
+     */
+    public void delete(String key) {
+        staleSnapshot.remove(key);
+        hotKeyDetector.evictLocal(key);
+        redisCircuitBreaker.executeOrThrow(() -> stringRedisTemplate.delete(Arrays.asList(key, key + VALIDATOR_SUFFIX)));
+    }
+
+    /**
+     * 批量删除Redis中的缓存和校验值，按批pipeline提交。Redis熔断或者异常时抛出异常，由调用方重试
+     */
+    public void deleteAll(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<List<String>> batches = CollUtil.split(keys, DELETE_BATCH_SIZE);
+        redisCircuitBreaker.executeOrThrow(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            batches.forEach(batch -> {
+                conn.del(batch.toArray(new String[0]));
+                conn.del(batch.stream().map(key -> key + VALIDATOR_SUFFIX).toArray(String[]::new));
+            });
+            return null;
+        }));
+    }
+
+    /**
+     * 清理本节点的本地缓存（热点缓存和旧数据快照）
+     */
+    public void evictLocal(Collection<String> keys) {
+        for (String key : keys) {
+            staleSnapshot.remove(key);
+            hotKeyDetector.evictLocal(key);
+        }
     }
 
 
@@ -52,35 +287,37 @@ public class CacheClient {
         // 1. query from cache.
         // 用hash和string类型都可以。value无需修改，用string也好。
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        String json = get(keyPrefix, CacheStrategy.PASS_THROUGH, key);
 
         // 2. not blank, return
         if (StrUtil.isNotBlank(json)) {
-            log.info("成功从缓存中获取到了店铺 {} 的信息：{}", id, json);
+            cacheMetrics.hit(keyPrefix, CacheStrategy.PASS_THROUGH);
             return JSONUtil.toBean(json, clazz);
         }
 
         // 2.1 ""
         if ("".equals(json)) {
-            log.info("缓存穿透解决方案");
+            cacheMetrics.nullHit(keyPrefix, CacheStrategy.PASS_THROUGH);
             return null;
         }
 
         // 3. otherwise, query from database
-        R r = function.apply(id);
+        cacheMetrics.miss(keyPrefix, CacheStrategy.PASS_THROUGH);
+        cacheMetrics.rebuild(keyPrefix, CacheStrategy.PASS_THROUGH);
+        R r = queryDb(keyPrefix, CacheStrategy.PASS_THROUGH, function, id);
 
         // 4. null, return fail
         if (r == null) {
-            log.info("数据库中没有店铺 {} 的信息", id);
+            log.debug("数据库中没有 {} 的信息", key);
             // 4.1 to avoid the cache penetration,
             // add empty to redis with a 2-min ttl when we cannot access the info from database.
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
 
             return null;
         }
 
         // 5. not null, add to cache for 30 min
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(r), ttl, timeUnit);
+        this.set(key, r, ttl, timeUnit);
 
         // 6. return ok.
         return r;
@@ -90,24 +327,28 @@ public class CacheClient {
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        String json = get(keyPrefix, CacheStrategy.PASS_THROUGH, key);
         // 2.判断是否存在
         if (StrUtil.isNotBlank(json)) {
             // 3.存在，直接返回
+            cacheMetrics.hit(keyPrefix, CacheStrategy.PASS_THROUGH);
             return JSONUtil.toBean(json, type);
         }
         // 判断命中的是否是空值
         if (json != null) {
             // 返回一个错误信息
+            cacheMetrics.nullHit(keyPrefix, CacheStrategy.PASS_THROUGH);
             return null;
         }
 
         // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
+        cacheMetrics.miss(keyPrefix, CacheStrategy.PASS_THROUGH);
+        cacheMetrics.rebuild(keyPrefix, CacheStrategy.PASS_THROUGH);
+        R r = queryDb(keyPrefix, CacheStrategy.PASS_THROUGH, dbFallback, id);
         // 5.不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
             // 返回错误信息
             return null;
         }
@@ -120,10 +361,11 @@ public class CacheClient {
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        String json = get(keyPrefix, CacheStrategy.LOGICAL_EXPIRE, key);
         // 2.判断是否存在
         if (StrUtil.isBlank(json)) {
             // 3.存在，直接返回
+            cacheMetrics.miss(keyPrefix, CacheStrategy.LOGICAL_EXPIRE);
             return null;
         }
         // 4.命中，需要先把json反序列化为对象
@@ -133,30 +375,31 @@ public class CacheClient {
         // 5.判断是否过期
         if(expireTime.isAfter(LocalDateTime.now())) {
             // 5.1.未过期，直接返回店铺信息
+            cacheMetrics.hit(keyPrefix, CacheStrategy.LOGICAL_EXPIRE);
             return r;
         }
+        cacheMetrics.staleHit(keyPrefix, CacheStrategy.LOGICAL_EXPIRE);
         // 5.2.已过期，需要缓存重建
-        // 6.缓存重建
-        // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2.判断是否获取锁成功
-        if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
-        }
+        // 6.缓存重建：交给共享的重建调度器，同一个key在本节点只会排队一次，队列满了就继续用旧数据
+        cacheRebuildScheduler.submit(key, () -> {
+            // 6.1.获取互斥锁，保证多个节点之间也只有一个在重建
+            String lockKey = LOCK_SHOP_KEY + id;
+            boolean isLock = tryLock(lockKey);
+            cacheMetrics.lock(keyPrefix, CacheStrategy.LOGICAL_EXPIRE, isLock);
+            // 6.2.判断是否获取锁成功
+            if (!isLock) {
+                return;
+            }
+            try {
+                // 6.3.成功，查询数据库，重建缓存
+                cacheMetrics.rebuild(keyPrefix, CacheStrategy.LOGICAL_EXPIRE);
+                R newR = queryDb(keyPrefix, CacheStrategy.LOGICAL_EXPIRE, dbFallback, id);
+                this.setWithLogicalExpire(key, newR, time, unit);
+            } finally {
+                // 释放锁
+                unlock(lockKey);
+            }
+        });
         // 6.4.返回过期的商铺信息
         return r;
     }
@@ -165,17 +408,25 @@ public class CacheClient {
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        String shopJson = get(keyPrefix, CacheStrategy.MUTEX, key);
         // 2.判断是否存在
         if (StrUtil.isNotBlank(shopJson)) {
             // 3.存在，直接返回
+            cacheMetrics.hit(keyPrefix, CacheStrategy.MUTEX);
             return JSONUtil.toBean(shopJson, type);
         }
         // 判断命中的是否是空值
         if (shopJson != null) {
             // 返回一个错误信息
+            cacheMetrics.nullHit(keyPrefix, CacheStrategy.MUTEX);
             return null;
         }
+        cacheMetrics.miss(keyPrefix, CacheStrategy.MUTEX);
+
+        // Redis熔断时拿不到互斥锁，直接限流回源
+        if (!redisCircuitBreaker.isClosed()) {
+            return queryDb(keyPrefix, CacheStrategy.MUTEX, dbFallback, id);
+        }
 
         // 4.实现缓存重建
         // 4.1.获取互斥锁
@@ -183,6 +434,7 @@ public class CacheClient {
         R r = null;
         try {
             boolean isLock = tryLock(lockKey);
+            cacheMetrics.lock(keyPrefix, CacheStrategy.MUTEX, isLock);
             // 4.2.判断是否获取成功
             if (!isLock) {
                 // 4.3.获取锁失败，休眠并重试
@@ -190,11 +442,12 @@ public class CacheClient {
                 return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
             }
             // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
+            cacheMetrics.rebuild(keyPrefix, CacheStrategy.MUTEX);
+            r = queryDb(keyPrefix, CacheStrategy.MUTEX, dbFallback, id);
             // 5.不存在，返回错误
             if (r == null) {
                 // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                setNull(key);
                 // 返回错误信息
                 return null;
             }
@@ -210,12 +463,112 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 读缓存。热点key优先读本地缓存；Redis熔断或异常时，读本地的旧数据快照。
+     */
+    private String get(String keyPrefix, CacheStrategy strategy, String key) {
+        hotKeyDetector.record(key);
+        String local = hotKeyDetector.getLocal(key);
+        if (local != null) {
+            return local;
+        }
+        return redisCircuitBreaker.execute(() -> {
+            String json = cacheMetrics.recordRedis(keyPrefix, strategy, () -> stringRedisTemplate.opsForValue().get(key));
+            if (json != null) {
+                staleSnapshot.put(key, json);
+                hotKeyDetector.promote(key, json);
+            }
+            return json;
+        }, () -> staleSnapshot.get(key));
+    }
+
+    /**
+     * 批量读缓存，规则同get
+     */
+    private List<String> multiGet(String keyPrefix, CacheStrategy strategy, List<String> keys) {
+        String[] values = new String[keys.size()];
+        List<String> remoteKeys = new ArrayList<>(keys.size());
+        List<Integer> remoteIndexes = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            hotKeyDetector.record(key);
+            values[i] = hotKeyDetector.getLocal(key);
+            if (values[i] == null) {
+                remoteKeys.add(key);
+                remoteIndexes.add(i);
+            }
+        }
+        if (!remoteKeys.isEmpty()) {
+            List<String> remote = redisCircuitBreaker.execute(
+                    () -> cacheMetrics.recordRedis(keyPrefix, strategy, () -> stringRedisTemplate.opsForValue().multiGet(remoteKeys)),
+                    () -> {
+                        List<String> snapshot = new ArrayList<>(remoteKeys.size());
+                        remoteKeys.forEach(key -> snapshot.add(staleSnapshot.get(key)));
+                        return snapshot;
+                    });
+            for (int i = 0; i < remoteKeys.size(); i++) {
+                String json = remote == null ? null : remote.get(i);
+                values[remoteIndexes.get(i)] = json;
+                if (json != null) {
+                    staleSnapshot.put(remoteKeys.get(i), json);
+                    hotKeyDetector.promote(remoteKeys.get(i), json);
+                }
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    private void setNullBatch(List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        evictLocal(keys);
+        keys.forEach(key -> staleSnapshot.put(key, ""));
+        long seconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            keys.forEach(key -> conn.setEx(key, seconds, ""));
+            return null;
+        }));
+    }
+
+    private void setNull(String key) {
+        staleSnapshot.put(key, "");
+        hotKeyDetector.evictLocal(key);
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES));
+    }
+
+    /**
+     * 回源数据库。Redis熔断期间所有请求都会落到数据库，需要限制并发，拿不到许可直接失败。
+     */
+    private <R, ID> R queryDb(String keyPrefix, CacheStrategy strategy, Function<ID, R> dbFallback, ID id) {
+        if (redisCircuitBreaker.isClosed()) {
+            return cacheMetrics.recordDb(keyPrefix, strategy, () -> dbFallback.apply(id));
+        }
+        boolean acquired;
+        try {
+            acquired = dbFallbackLimiter.tryAcquire(DB_FALLBACK_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (!acquired) {
+            throw new RuntimeException("系统繁忙，请稍后重试");
+        }
+        try {
+            return cacheMetrics.recordDb(keyPrefix, strategy, () -> dbFallback.apply(id));
+        } finally {
+            dbFallbackLimiter.release();
+        }
+    }
+
     private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
+        Boolean flag = redisCircuitBreaker.execute(
+                () -> stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS), () -> false);
         return BooleanUtil.isTrue(flag);
     }
 
     private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.delete(key));
     }
 }
@@ -0,0 +1,172 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_EVICT_CHANNEL;
+
+/**
+ * 缓存失效。
+ * 在事务中调用时，删除动作注册为事务提交后的回调，避免提交前被并发读请求用旧数据回填缓存；
+ * 短时间窗口内的失效请求会合并去重，一次pipeline删除Redis，再广播给其他节点清理本地缓存；
+ * 可选延迟双删，兜住提交后、删除前被回填的旧数据。
+ * Redis熔断或者删除失败时，key放回待删除集合，之后每个窗口重试，直到Redis恢复后删除成功。
+ */
+@Slf4j
+@Component
+public class CacheInvalidator implements MessageListener {
+
+    /**
+     * 合并窗口，毫秒
+     */
+    private static final long FLUSH_INTERVAL_MILLIS = 50L;
+
+    private final String nodeId = UUID.fastUUID().toString(true);
+
+    private final CacheClient cacheClient;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisCircuitBreaker redisCircuitBreaker;
+
+    /**
+     * 延迟双删的间隔，毫秒，0表示不做第二次删除
+     */
+    private final long doubleDeleteDelayMillis;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CacheInvalidator(CacheClient cacheClient, StringRedisTemplate stringRedisTemplate,
+                            RedisCircuitBreaker redisCircuitBreaker,
+                            @Value("${hmdp.cache.double-delete-delay-ms:500}") long doubleDeleteDelayMillis) {
+        this.cacheClient = cacheClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
+        this.doubleDeleteDelayMillis = doubleDeleteDelayMillis;
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 使缓存失效。有事务时在提交后生效，没有事务时在下一个合并窗口生效。
+     */
+    public void evict(String key) {
+        evictAll(Collections.singletonList(key));
+    }
+
+    public void evictAll(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            pending.addAll(keys);
+            return;
+        }
+        List<String> copy = new ArrayList<>(keys);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                pending.addAll(copy);
+            }
+        });
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(pending.size());
+        Iterator<String> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            keys.add(iterator.next());
+            iterator.remove();
+        }
+        try {
+            cacheClient.evictLocal(keys);
+            if (!delete(keys)) {
+                return;
+            }
+            broadcast(keys);
+            if (doubleDeleteDelayMillis > 0) {
+                scheduler.schedule(() -> {
+                    cacheClient.evictLocal(keys);
+                    delete(keys);
+                }, doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            // 调度线程不能因为异常退出
+            log.error("缓存失效处理失败，keys：{}", keys, e);
+        }
+    }
+
+    /**
+     * 删除Redis中的缓存，失败时放回待删除集合，下个窗口重试
+     * @return 是否删除成功
+     */
+    private boolean delete(List<String> keys) {
+        try {
+            cacheClient.deleteAll(keys);
+            return true;
+        } catch (Exception e) {
+            pending.addAll(keys);
+            // 熔断期间每个窗口都会失败，不逐次打印告警
+            log.debug("删除缓存失败，稍后重试，keys：{}，原因：{}", keys, e.getMessage());
+            return false;
+        }
+    }
+
+    private void broadcast(List<String> keys) {
+        JSONObject message = new JSONObject();
+        message.set("node", nodeId);
+        message.set("keys", keys);
+        String json = message.toString();
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.convertAndSend(CACHE_EVICT_CHANNEL, json));
+    }
+
+    /**
+     * 其他节点修改了数据，清理本地缓存
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        JSONObject body = JSONUtil.parseObj(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (nodeId.equals(body.getStr("node"))) {
+            return;
+        }
+        JSONArray keys = body.getJSONArray("keys");
+        if (keys != null) {
+            cacheClient.evictLocal(keys.toList(String.class));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * CacheClient的监控指标，按key前缀和缓存策略打tag。
+ * Meter注册后缓存在本地Map里，热路径上只有一次Map查找。
+ */
+@Component
+public class CacheMetrics {
+
+    private static final String REQUESTS = "hmdp.cache.requests";
+    private static final String REBUILDS = "hmdp.cache.rebuilds";
+    private static final String LOCKS = "hmdp.cache.locks";
+    private static final String REDIS_LATENCY = "hmdp.cache.redis.latency";
+    private static final String DB_LATENCY = "hmdp.cache.db.latency";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void hit(String keyPrefix, CacheStrategy strategy) {
+        request(keyPrefix, strategy, "hit");
+    }
+
+    public void miss(String keyPrefix, CacheStrategy strategy) {
+        request(keyPrefix, strategy, "miss");
+    }
+
+    /**
+     * 命中了缓存穿透写入的空值
+     */
+    public void nullHit(String keyPrefix, CacheStrategy strategy) {
+        request(keyPrefix, strategy, "null_hit");
+    }
+
+    /**
+     * 逻辑过期策略命中了已过期的数据
+     */
+    public void staleHit(String keyPrefix, CacheStrategy strategy) {
+        request(keyPrefix, strategy, "stale_hit");
+    }
+
+    public void rebuild(String keyPrefix, CacheStrategy strategy) {
+        counter(REBUILDS, keyPrefix, strategy, null).increment();
+    }
+
+    public void lock(String keyPrefix, CacheStrategy strategy, boolean acquired) {
+        counter(LOCKS, keyPrefix, strategy, acquired ? "acquired" : "contended").increment();
+    }
+
+    public <T> T recordRedis(String keyPrefix, CacheStrategy strategy, Supplier<T> supplier) {
+        return timer(REDIS_LATENCY, keyPrefix, strategy).record(supplier);
+    }
+
+    public <T> T recordDb(String keyPrefix, CacheStrategy strategy, Supplier<T> supplier) {
+        return timer(DB_LATENCY, keyPrefix, strategy).record(supplier);
+    }
+
+    private void request(String keyPrefix, CacheStrategy strategy, String result) {
+        counter(REQUESTS, keyPrefix, strategy, result).increment();
+    }
+
+    private Counter counter(String name, String keyPrefix, CacheStrategy strategy, String result) {
+        String id = name + '|' + keyPrefix + '|' + strategy + '|' + result;
+        return counters.computeIfAbsent(id, k -> {
+            Counter.Builder builder = Counter.builder(name)
+                    .tag("prefix", keyPrefix)
+                    .tag("strategy", strategy.name());
+            if (result != null) {
+                builder.tag("result", result);
+            }
+            return builder.register(meterRegistry);
+        });
+    }
+
+    private Timer timer(String name, String keyPrefix, CacheStrategy strategy) {
+        return timers.computeIfAbsent(name + '|' + keyPrefix + '|' + strategy, k -> Timer.builder(name)
+                .tag("prefix", keyPrefix)
+                .tag("strategy", strategy.name())
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(2))
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局共享的缓存重建调度器。
+ * 1. 同一个key同时只会有一个重建任务（本节点内去重），重复提交直接忽略；
+ * 2. 排队和执行中的任务总数有界（信号量控制，PriorityBlockingQueue本身无界），满了就拒绝，调用方继续返回旧数据；
+ * 3. 按key的热度排优先级，越热的key越先重建；
+ * 4. 重建异常会记录日志，不会被线程池吞掉。
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private static final int THREADS = 10;
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final ThreadPoolExecutor executor;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    /**
+     * 排队和执行中的任务名额，提交前获取，任务结束后释放
+     */
+    private final Semaphore permits = new Semaphore(THREADS + QUEUE_CAPACITY);
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Timer rebuildLatency;
+    private final Counter deduplicated;
+    private final Counter rejected;
+    private final Counter failed;
+
+    public CacheRebuildScheduler(HotKeyDetector hotKeyDetector, MeterRegistry meterRegistry) {
+        this.hotKeyDetector = hotKeyDetector;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        Gauge.builder("hmdp.cache.rebuild.queue", executor, e -> e.getQueue().size()).register(meterRegistry);
+        this.rebuildLatency = Timer.builder("hmdp.cache.rebuild.latency")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.deduplicated = Counter.builder("hmdp.cache.rebuild.skipped").tag("reason", "in_flight").register(meterRegistry);
+        this.rejected = Counter.builder("hmdp.cache.rebuild.skipped").tag("reason", "queue_full").register(meterRegistry);
+        this.failed = Counter.builder("hmdp.cache.rebuild.failed").register(meterRegistry);
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 被重建的缓存key，用于去重和计算优先级
+     * @param rebuild 重建逻辑
+     * @return false：该key已在重建中或者队列已满，没有提交，调用方继续使用旧数据
+     */
+    public boolean submit(String key, Runnable rebuild) {
+        if (!inFlight.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        if (!permits.tryAcquire()) {
+            inFlight.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，{} 继续使用旧数据", key);
+            return false;
+        }
+        try {
+            executor.execute(new RebuildTask(key, hotKeyDetector.estimate(key), sequence.incrementAndGet(), rebuild));
+            return true;
+        } catch (RejectedExecutionException e) {
+            // 线程池已经关闭
+            permits.release();
+            inFlight.remove(key);
+            rejected.increment();
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String key;
+        private final int hotness;
+        private final long seq;
+        private final Runnable rebuild;
+
+        RebuildTask(String key, int hotness, long seq, Runnable rebuild) {
+            this.key = key;
+            this.hotness = hotness;
+            this.seq = seq;
+            this.rebuild = rebuild;
+        }
+
+        @Override
+        public void run() {
+            long begin = System.nanoTime();
+            try {
+                rebuild.run();
+            } catch (Exception e) {
+                failed.increment();
+                log.error("缓存 {} 重建失败", key, e);
+            } finally {
+                inFlight.remove(key);
+                permits.release();
+                rebuildLatency.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * 热度高的在前，热度相同先提交的在前
+         */
+        @Override
+        public int compareTo(RebuildTask other) {
+            int c = Integer.compare(other.hotness, hotness);
+            return c != 0 ? c : Long.compare(seq, other.seq);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+/**
+ * CacheClient提供的缓存查询策略
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空值，解决缓存穿透
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁重建，解决缓存击穿
+     */
+    MUTEX,
+    /**
+     * 逻辑过期，异步重建，需要提前预热
+     */
+    LOGICAL_EXPIRE
+}
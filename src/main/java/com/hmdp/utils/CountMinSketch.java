@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min Sketch：用固定内存估算key的访问频次，只会高估不会低估。
+ * 每一行用不同的种子做哈希，估算值取所有行里的最小值。
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final AtomicIntegerArray[] rows;
+
+    /**
+     * @param depth 哈希函数个数（行数）
+     * @param width 每行计数器个数，会向上取整为2的幂
+     */
+    public CountMinSketch(int depth, int width) {
+        this.depth = depth;
+        this.width = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.rows = new AtomicIntegerArray[depth];
+        for (int i = 0; i < depth; i++) {
+            rows[i] = new AtomicIntegerArray(this.width);
+        }
+    }
+
+    /**
+     * 计数加一，返回加完之后的估算值
+     */
+    public int increment(String key) {
+        int hash = key.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int count = rows[i].incrementAndGet(index(hash, i));
+            min = Math.min(min, count);
+        }
+        return min;
+    }
+
+    public int estimate(String key) {
+        int hash = key.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, rows[i].get(index(hash, i)));
+        }
+        return min;
+    }
+
+    /**
+     * 衰减：所有计数减半，让历史热度逐渐失效
+     */
+    public void decay() {
+        for (AtomicIntegerArray row : rows) {
+            for (int j = 0; j < width; j++) {
+                int count = row.get(j);
+                if (count != 0) {
+                    row.set(j, count >>> 1);
+                }
+            }
+        }
+    }
+
+    private int index(int hash, int row) {
+        // 每行使用不同的种子再散列一次
+        int h = hash * (0x9E3779B9 + (row << 1));
+        h ^= h >>> 16;
+        return h & (width - 1);
+    }
+}
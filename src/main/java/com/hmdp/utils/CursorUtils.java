@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.CursorResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 游标分页工具。
+ * 游标就是上一页最后一条记录的排序键（例如 id，或者 liked + id），序列化后再做Base64，对前端是不透明的字符串。
+ * 下一页用 "排序键 < 游标" 作为条件走索引定位，不需要OFFSET，也不需要COUNT，第1页和第10000页代价相同。
+ */
+public class CursorUtils {
+
+    public static String encode(Object... keys) {
+        return Base64.encodeUrlSafe(JSONUtil.toJsonStr(keys));
+    }
+
+    /**
+     * 解析游标
+     * @param cursor 前端传回的游标
+     * @param size 排序键的个数
+     * @return 排序键；游标为空或者无效时返回null
+     */
+    public static JSONArray decode(String cursor, int size) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            JSONArray keys = JSONUtil.parseArray(Base64.decodeStr(cursor, StandardCharsets.UTF_8));
+            return keys.size() == size ? keys : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 组装一页结果。查询时要多查一条（LIMIT size + 1），用来判断是否还有下一页
+     * @param rows 查询结果，最多 size + 1 条
+     * @param size 每页条数
+     * @param keyOf 取一条记录的排序键
+     */
+    public static <T> CursorResult of(List<T> rows, int size, Function<T, Object[]> keyOf) {
+        CursorResult result = new CursorResult();
+        if (rows.size() > size) {
+            rows = rows.subList(0, size);
+            result.setNext(encode(keyOf.apply(rows.get(size - 1))));
+        }
+        result.setList(rows);
+        return result;
+    }
+}
@@ -0,0 +1,189 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.hmdp.utils.RedisConstants.HOT_KEY_CHANNEL;
+
+/**
+ * 热点key探测。
+ * 读路径上抽样计数（Count-Min Sketch），频次超过阈值的key进入Top-K热点集合，
+ * 热点key的值在本地缓存一小段时间，不再每次访问Redis。
+ * 每个窗口结束时计数衰减减半，并通过Redis发布订阅把本节点的热点列表广播给其他节点。
+ */
+@Slf4j
+@Component
+public class HotKeyDetector implements MessageListener {
+
+    /**
+     * 抽样率：每SAMPLE_RATE次读取记录一次
+     */
+    private static final int SAMPLE_RATE = 8;
+    /**
+     * 一个窗口内估算访问次数超过该值即为热点
+     */
+    private static final int HOT_THRESHOLD = 2000;
+    /**
+     * 热点集合容量
+     */
+    private static final int TOP_K = 32;
+    /**
+     * 窗口长度，毫秒
+     */
+    private static final long WINDOW_MILLIS = 5000L;
+    /**
+     * 热点key本地缓存时间，毫秒。时间要短，用来兜住跨节点的不一致
+     */
+    private static final long LOCAL_TTL_MILLIS = 3000L;
+
+    private final String nodeId = UUID.fastUUID().toString(true);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisCircuitBreaker redisCircuitBreaker;
+
+    private final CountMinSketch sketch = new CountMinSketch(4, 4096);
+    /**
+     * 本节点探测到的热点key -> 估算访问次数
+     */
+    private final Map<String, Integer> topK = new ConcurrentHashMap<>();
+    /**
+     * 其他节点广播过来的热点key，两个窗口内没有再收到则失效
+     */
+    private final TimedCache<String, Boolean> remoteHot = CacheUtil.newTimedCache(2 * WINDOW_MILLIS);
+    /**
+     * 热点key的本地缓存
+     */
+    private final TimedCache<String, String> localCache = CacheUtil.newTimedCache(LOCAL_TTL_MILLIS);
+
+    public HotKeyDetector(StringRedisTemplate stringRedisTemplate, RedisCircuitBreaker redisCircuitBreaker) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
+    }
+
+    /**
+     * 记录一次读取（抽样）
+     */
+    public void record(String key) {
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0) {
+            return;
+        }
+        int estimate = sketch.increment(key) * SAMPLE_RATE;
+        // 只读一次：decay或者替换可能同时删除这个key
+        Integer current = topK.get(key);
+        if (estimate < HOT_THRESHOLD || current != null && current >= estimate) {
+            return;
+        }
+        if (current != null || topK.size() < TOP_K) {
+            topK.put(key, estimate);
+            return;
+        }
+        // 集合已满，替换掉最冷的一个
+        topK.entrySet().stream()
+                .min(Map.Entry.comparingByValue())
+                .filter(coldest -> coldest.getValue() < estimate)
+                .ifPresent(coldest -> {
+                    topK.remove(coldest.getKey());
+                    topK.put(key, estimate);
+                });
+    }
+
+    /**
+     * 估算当前窗口内的访问次数
+     */
+    public int estimate(String key) {
+        return sketch.estimate(key) * SAMPLE_RATE;
+    }
+
+    public boolean isHot(String key) {
+        return topK.containsKey(key) || remoteHot.containsKey(key);
+    }
+
+    /**
+     * 读取热点key的本地缓存
+     */
+    public String getLocal(String key) {
+        // 不刷新访问时间，否则热点key永远不会过期
+        return localCache.get(key, false);
+    }
+
+    /**
+     * 如果key是热点，把值放进本地缓存
+     */
+    public void promote(String key, String json) {
+        if (json != null && isHot(key)) {
+            localCache.put(key, json);
+        }
+    }
+
+    public void evictLocal(String key) {
+        localCache.remove(key);
+    }
+
+    /**
+     * 当前热点集合，供运维查看
+     */
+    public Map<String, Object> getHotKeys() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Map<String, Integer> local = new LinkedHashMap<>();
+        topK.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder()))
+                .forEach(e -> local.put(e.getKey(), e.getValue()));
+        result.put("node", nodeId);
+        result.put("local", local);
+        result.put("remote", remoteHot.keySet());
+        result.put("localCacheSize", localCache.size());
+        return result;
+    }
+
+    /**
+     * 窗口结束：计数衰减，清理已经不热的key，广播本节点的热点列表
+     */
+    @Scheduled(fixedRate = WINDOW_MILLIS)
+    public void decay() {
+        sketch.decay();
+        topK.replaceAll((key, estimate) -> estimate >>> 1);
+        topK.values().removeIf(estimate -> estimate < HOT_THRESHOLD);
+        localCache.prune();
+        remoteHot.prune();
+        if (topK.isEmpty()) {
+            return;
+        }
+        JSONObject message = new JSONObject();
+        message.set("node", nodeId);
+        message.set("keys", topK.keySet());
+        String json = message.toString();
+        redisCircuitBreaker.execute(() -> stringRedisTemplate.convertAndSend(HOT_KEY_CHANNEL, json));
+    }
+
+    /**
+     * 接收其他节点广播的热点列表
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        JSONObject body = JSONUtil.parseObj(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (nodeId.equals(body.getStr("node"))) {
+            return;
+        }
+        JSONArray keys = body.getJSONArray("keys");
+        if (keys != null) {
+            keys.toList(String.class).forEach(key -> remoteHot.put(key, Boolean.TRUE));
+        }
+    }
+}
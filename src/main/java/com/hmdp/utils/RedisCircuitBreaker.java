@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Redis熔断器：保护所有直接使用StringRedisTemplate的热点路径。
+ * CLOSED：正常访问Redis，连续失败达到阈值后进入OPEN；
+ * OPEN：不再访问Redis，直接走降级逻辑，冷却时间过后进入HALF_OPEN；
+ * HALF_OPEN：只放行一个探测请求，成功则CLOSED，失败则重新OPEN。
+ */
+@Slf4j
+@Component
+public class RedisCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 连续失败多少次后熔断
+     */
+    private static final int FAILURE_THRESHOLD = 5;
+    /**
+     * 熔断后多久允许半开探测，毫秒
+     */
+    private static final long OPEN_MILLIS = 5000L;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+
+    /**
+     * 通过熔断器执行Redis操作
+     * @param action Redis操作
+     * @param fallback 熔断或Redis异常时的降级逻辑
+     */
+    public <T> T execute(Supplier<T> action, Supplier<T> fallback) {
+        State granted = tryAcquire();
+        if (granted == null) {
+            return fallback.get();
+        }
+        try {
+            T result = action.get();
+            onSuccess();
+            return result;
+        } catch (DataAccessException e) {
+            onFailure(e);
+            return fallback.get();
+        } catch (RuntimeException e) {
+            // 不是Redis异常，原样抛出；但探测请求没有成功，要恢复OPEN，否则一直停在HALF_OPEN不再放行
+            if (granted == State.HALF_OPEN && state.get() == State.HALF_OPEN) {
+                open();
+                log.warn("Redis半开探测异常，继续熔断：{}", e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 执行没有返回值的Redis写操作，熔断时直接跳过
+     */
+    public void execute(Runnable action) {
+        execute(() -> {
+            action.run();
+            return null;
+        }, () -> null);
+    }
+
+    /**
+     * 执行必须成功的Redis写操作：熔断或者Redis异常时抛出异常，由调用方稍后重试，而不是像execute(Runnable)一样直接跳过
+     */
+    public void executeOrThrow(Runnable action) {
+        boolean done = execute(() -> {
+            action.run();
+            return true;
+        }, () -> false);
+        if (!done) {
+            throw new IllegalStateException("Redis不可用");
+        }
+    }
+
+    public boolean isClosed() {
+        return state.get() == State.CLOSED;
+    }
+
+    /**
+     * 当前是否可以访问Redis（CLOSED，或者OPEN已经冷却可以探测）
+     */
+    public boolean isAvailable() {
+        State current = state.get();
+        return current == State.CLOSED
+                || (current == State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_MILLIS);
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return 放行时的状态：CLOSED为正常访问，HALF_OPEN为探测请求；不放行返回null
+     */
+    private State tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return State.CLOSED;
+        }
+        // 只有一个线程能拿到探测机会
+        if (current == State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_MILLIS
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            return State.HALF_OPEN;
+        }
+        return null;
+    }
+
+    private void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state.get() != State.CLOSED && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            log.info("Redis恢复，熔断器关闭");
+        }
+    }
+
+    private void onFailure(DataAccessException e) {
+        if (state.get() == State.HALF_OPEN) {
+            open();
+            log.warn("Redis半开探测失败，继续熔断：{}", e.getMessage());
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() >= FAILURE_THRESHOLD && state.compareAndSet(State.CLOSED, State.OPEN)) {
+            openedAt = System.currentTimeMillis();
+            log.error("Redis连续失败{}次，熔断器打开", FAILURE_THRESHOLD, e);
+        } else {
+            log.warn("Redis访问失败：{}", e.getMessage());
+        }
+    }
+
+    private void open() {
+        openedAt = System.currentTimeMillis();
+        state.set(State.OPEN);
+    }
+}
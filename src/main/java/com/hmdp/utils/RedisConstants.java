@@ -8,16 +8,40 @@ public class RedisConstants {
 
     public static final Long CACHE_NULL_TTL = 2L;
 
-    public static final Long CACHE_SHOP_TTL = 30L;
+    public static final long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_LIST = "cache:shop:list";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop:type:version:";
+    public static final String CACHE_SHOP_TYPE_PAGE_KEY = "cache:shop:type:page:";
+    public static final Long CACHE_SHOP_TYPE_PAGE_TTL = 10L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DIRTY_KEY = "blog:liked:dirty";
+    public static final String BLOG_LIKED_FLUSHING_KEY = "blog:liked:dirty:flushing";
+    public static final String BLOG_LIKED_BASE_KEY = "blog:liked:base";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_EMPTY_KEY = "blog:hot:empty";
+    public static final String BLOG_HOT_EPOCH_KEY = "blog:hot:epoch";
+    public static final String LOCK_BLOG_HOT_DECAY_KEY = "lock:blog:hot:decay";
+    public static final String LOCK_BLOG_LIKED_FLUSH_KEY = "lock:blog:liked:flush";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_AUTHORS_KEY = "feed:big";
+    public static final String FEED_FOLLOW_BIG_KEY = "feed:big:follow:";
+    public static final Long FEED_FOLLOW_BIG_TTL = 1L;
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_RANK_SOLD_KEY = "shop:rank:sold:";
+    public static final String SHOP_RANK_SCORE_KEY = "shop:rank:score:";
     public static final String USER_SIGN_KEY = "sign:";
+
+    public static final String HOT_KEY_CHANNEL = "channel:hotkey";
+    public static final String CACHE_EVICT_CHANNEL = "channel:cache:evict";
+    public static final String SHOP_CHANGED_CHANNEL = "channel:shop:changed";
+    public static final String SHOP_TYPE_CHANGED_CHANNEL = "channel:shop-type:changed";
 }
@@ -20,8 +20,11 @@ public class RedisIdWorker {
 
     private StringRedisTemplate stringRedisTemplate;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, RedisCircuitBreaker redisCircuitBreaker) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisCircuitBreaker = redisCircuitBreaker;
     }
 
     public long nextId(String keyPrefix) {
@@ -33,8 +36,12 @@ public class RedisIdWorker {
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
         String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        // 2.2.自增长，Redis不可用时无法保证全局唯一，只能失败
+        Long count = redisCircuitBreaker.execute(
+                () -> stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date), () -> null);
+        if (count == null) {
+            throw new RuntimeException("系统繁忙，请稍后重试");
+        }
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
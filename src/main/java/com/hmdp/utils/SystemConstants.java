@@ -5,4 +5,25 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+
+    /**
+     * 笔记热度：点赞一次加1分，评论一次加3分，新发布的笔记1分，每小时所有分数乘以0.9（约6.6小时减半）
+     */
+    public static final int BLOG_HOT_COMMENT_WEIGHT = 3;
+    public static final int BLOG_HOT_PUBLISH_SCORE = 1;
+    public static final double BLOG_HOT_DECAY_FACTOR = 0.9;
+    public static final long BLOG_HOT_DECAY_INTERVAL_MILLIS = 3_600_000L;
+    /**
+     * 热度榜最多保留的笔记数
+     */
+    public static final int BLOG_HOT_MAX_SIZE = 10000;
+
+    /**
+     * 关注收件箱最多保留的笔记数，更早的需要到作者主页查看
+     */
+    public static final int FEED_MAX_SIZE = 1000;
+    /**
+     * 推送时每批处理的粉丝数，一批一个pipeline
+     */
+    public static final int FEED_FAN_OUT_BATCH = 500;
 }
@@ -0,0 +1,17 @@
+-- 笔记热度衰减：所有分数乘以衰减系数，只保留分数最高的若干篇，衰减次数加1
+-- 多个节点同时执行时，只有拿到锁的节点执行，每个周期只衰减一次
+-- KEYS[1]：热度榜
+-- KEYS[2]：衰减次数，游标中记录，用来换算衰减前的分数
+-- KEYS[3]：锁
+-- ARGV[1]：衰减系数
+-- ARGV[2]：最多保留的笔记数
+-- ARGV[3]：锁的过期时间（毫秒）
+-- 返回衰减后的次数；没拿到锁时返回-1
+if not redis.call('set', KEYS[3], '1', 'NX', 'PX', ARGV[3]) then
+    return -1
+end
+if redis.call('exists', KEYS[1]) == 1 then
+    redis.call('zunionstore', KEYS[1], 1, KEYS[1], 'WEIGHTS', ARGV[1])
+    redis.call('zremrangebyrank', KEYS[1], 0, -tonumber(ARGV[2]) - 1)
+end
+return redis.call('incr', KEYS[2])
@@ -0,0 +1,19 @@
+-- 点赞/取消点赞，同一个用户对同一篇笔记只能点赞一次
+-- KEYS[1]：笔记的点赞集合key
+-- KEYS[2]：点赞数待写回数据库的笔记集合，分数是第一次变化的时间
+-- KEYS[3]：笔记热度榜，笔记在榜上时同步加减热度；已经被衰减淘汰的笔记不能只凭这一次点赞重新上榜
+-- ARGV[1]：用户id
+-- ARGV[2]：点赞时间（毫秒），作为分数，按点赞先后排序
+-- ARGV[3]：笔记id
+-- 返回 1：点赞成功，-1：取消点赞
+local result = 1
+if redis.call('zscore', KEYS[1], ARGV[1]) then
+    redis.call('zrem', KEYS[1], ARGV[1])
+    result = -1
+else
+    redis.call('zadd', KEYS[1], ARGV[2], ARGV[1])
+end
+redis.call('zadd', KEYS[2], 'NX', ARGV[2], ARGV[3])
+-- XX：只更新已经存在的成员，榜单不存在时也不会创建
+redis.call('zadd', KEYS[3], 'XX', 'INCR', result, ARGV[3])
+return result
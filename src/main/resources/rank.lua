@@ -0,0 +1,15 @@
+-- 更新排行榜（商铺销量、评分，笔记热度），只在排行榜已经存在时更新
+-- 排行榜不存在时，查询时会从数据库完整加载；这里如果直接写入，会得到只有部分成员的排行榜
+-- KEYS[1]：排行榜key
+-- ARGV[1]：incr 增加分数，只更新已经在榜上的成员（笔记热度榜会淘汰成员，不能用增量把它加回来） / set 设置分数
+-- ARGV[2]：商铺id或笔记id
+-- ARGV[3]：分数
+if redis.call('exists', KEYS[1]) == 0 then
+    return 0
+end
+if ARGV[1] == 'incr' then
+    redis.call('zadd', KEYS[1], 'XX', 'INCR', ARGV[3], ARGV[2])
+else
+    redis.call('zadd', KEYS[1], ARGV[3], ARGV[2])
+end
+return 1
@@ -0,0 +1,7 @@
+-- 释放锁：锁的值还是自己加锁时写入的标识才删除，避免锁过期后删掉别的节点的锁
+-- KEYS[1]：锁
+-- ARGV[1]：加锁时写入的标识
+if redis.call('get', KEYS[1]) == ARGV[1] then
+    return redis.call('del', KEYS[1])
+end
+return 0
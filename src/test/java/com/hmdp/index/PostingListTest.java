@@ -0,0 +1,112 @@
+package com.hmdp.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PostingListTest {
+
+    @Test
+    void testAppendAscending() {
+        PostingList list = new PostingList();
+        for (long id = 1; id <= 1000; id++) {
+            assertTrue(list.add(id));
+        }
+        assertEquals(1000, list.size());
+        long[] ids = list.toArray();
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i + 1, ids[i]);
+        }
+        list.trim();
+        // 差值都是1，每个id占1个字节
+        assertEquals(1000, list.sizeInBytes());
+    }
+
+    @Test
+    void testInsertOutOfOrderAndDuplicates() {
+        PostingList list = new PostingList();
+        assertTrue(list.add(10));
+        assertTrue(list.add(30));
+        assertTrue(list.add(20));
+        assertTrue(list.add(1));
+        assertFalse(list.add(20));
+        assertFalse(list.add(30));
+        assertArrayEquals(new long[]{1, 10, 20, 30}, list.toArray());
+        // 插入到中间之后还能继续追加
+        assertTrue(list.add(40));
+        assertArrayEquals(new long[]{1, 10, 20, 30, 40}, list.toArray());
+    }
+
+    @Test
+    void testRemove() {
+        PostingList list = new PostingList();
+        list.add(1);
+        list.add(2);
+        list.add(3);
+        assertFalse(list.remove(4));
+        assertTrue(list.remove(2));
+        assertArrayEquals(new long[]{1, 3}, list.toArray());
+        assertTrue(list.remove(3));
+        // 删除最后一个之后，追加要从新的末尾开始算差值
+        assertTrue(list.add(2));
+        assertArrayEquals(new long[]{1, 2}, list.toArray());
+        assertTrue(list.remove(1));
+        assertTrue(list.remove(2));
+        assertTrue(list.isEmpty());
+        assertTrue(list.add(5));
+        assertArrayEquals(new long[]{5}, list.toArray());
+    }
+
+    @Test
+    void testLargeGaps() {
+        PostingList list = new PostingList();
+        long[] ids = {1, 128, 16384, 1L << 35, Long.MAX_VALUE};
+        for (long id : ids) {
+            list.add(id);
+        }
+        list.trim();
+        assertArrayEquals(ids, list.toArray());
+    }
+
+    @Test
+    void testMatchesSortedSet() {
+        Random random = new Random(42);
+        PostingList list = new PostingList();
+        TreeSet<Long> expected = new TreeSet<>();
+        for (int i = 0; i < 5000; i++) {
+            long id = 1 + random.nextInt(2000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(id), list.remove(id));
+            } else {
+                assertEquals(expected.add(id), list.add(id));
+            }
+        }
+        List<Long> actual = new ArrayList<>();
+        list.forEach(actual::add);
+        assertEquals(new ArrayList<>(expected), actual);
+        assertEquals(expected.size(), list.size());
+    }
+
+    @Test
+    void testAscendingBuildIsLinear() {
+        // 追加不重新编码，10万个id应该很快完成
+        PostingList list = new PostingList();
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 100000; id++) {
+            ids.add(id * 3);
+        }
+        long begin = System.nanoTime();
+        ids.forEach(list::add);
+        assertTrue(System.nanoTime() - begin < 1_000_000_000L);
+        assertEquals(100000, list.size());
+        assertEquals(300000L, list.toArray()[99999]);
+    }
+}
@@ -0,0 +1,145 @@
+package com.hmdp.index;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopFilterIndexTest {
+
+    private ShopFilterIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopFilterIndex(new SimpleMeterRegistry());
+        index.upsert(shop(1L, 1L, "大关", 30L, 40));
+        index.upsert(shop(2L, 1L, "拱宸桥", 80L, 45));
+        index.upsert(shop(3L, 2L, "大关", 150L, 47));
+        index.upsert(shop(4L, 2L, "西湖", 600L, 49));
+        index.upsert(shop(5L, 3L, "大关", null, 35));
+    }
+
+    @Test
+    void testPriceBand() {
+        assertEquals(0, ShopFilterIndex.priceBand(0));
+        assertEquals(0, ShopFilterIndex.priceBand(49));
+        assertEquals(1, ShopFilterIndex.priceBand(50));
+        assertEquals(2, ShopFilterIndex.priceBand(199));
+        assertEquals(3, ShopFilterIndex.priceBand(200));
+        assertEquals(4, ShopFilterIndex.priceBand(500));
+        assertEquals(4, ShopFilterIndex.priceBand(100000));
+    }
+
+    @Test
+    void testNoConditionReturnsAll() {
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), filter(null, null, null, null));
+    }
+
+    @Test
+    void testOrWithinAndAcross() {
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), filter(Arrays.asList(1L, 2L), null, null, null));
+        assertEquals(Arrays.asList(1L, 3L), filter(Arrays.asList(1L, 2L), Collections.singletonList("大关"), null, null));
+        assertEquals(Arrays.asList(1L, 3L, 4L), filter(null, null, Arrays.asList(0, 2, 4), null));
+        assertEquals(Collections.singletonList(3L),
+                filter(Arrays.asList(1L, 2L), Collections.singletonList("大关"), null, 45));
+        // 没有价格的商铺不属于任何价格区间
+        assertEquals(Collections.singletonList(1L),
+                filter(null, Collections.singletonList("大关"), Arrays.asList(0, 1), null));
+    }
+
+    @Test
+    void testUnknownValuesMatchNothing() {
+        assertTrue(filter(Collections.singletonList(99L), null, null, null).isEmpty());
+        assertTrue(filter(null, Collections.singletonList("不存在"), null, null).isEmpty());
+        assertTrue(filter(null, null, null, 50).isEmpty());
+    }
+
+    @Test
+    void testPaging() {
+        assertEquals(Arrays.asList(1L, 2L), index.filter(null, null, null, null, 0, 2));
+        assertEquals(Arrays.asList(3L, 4L), index.filter(null, null, null, null, 2, 2));
+        assertEquals(Collections.singletonList(5L), index.filter(null, null, null, null, 4, 2));
+        assertTrue(index.filter(null, null, null, null, 5, 2).isEmpty());
+    }
+
+    @Test
+    void testUpdateAndRemove() {
+        // 换类型、商圈、价格、评分
+        index.upsert(shop(1L, 2L, "西湖", 300L, 48));
+        assertEquals(Collections.singletonList(2L), filter(Collections.singletonList(1L), null, null, null));
+        assertEquals(Arrays.asList(1L, 4L), filter(null, Collections.singletonList("西湖"), null, null));
+        assertEquals(Collections.singletonList(1L), filter(null, null, Collections.singletonList(3), null));
+        assertTrue(filter(null, null, Collections.singletonList(0), null).isEmpty());
+
+        index.remove(4L);
+        assertEquals(Collections.singletonList(1L), filter(null, Collections.singletonList("西湖"), null, null));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 5L), filter(null, null, null, null));
+        // 删除不存在的商铺没有影响
+        index.remove(99L);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 5L), filter(null, null, null, null));
+    }
+
+    @Test
+    void testEmptyBitmapsAreDropped() {
+        int bitmaps = index.bitmaps();
+        // 唯一的type 3、评分35的商铺
+        index.remove(5L);
+        assertEquals(bitmaps - 2, index.bitmaps());
+    }
+
+    @Test
+    void testMatchesBruteForce() {
+        Random random = new Random(11);
+        List<Shop> shops = new ArrayList<>();
+        index = new ShopFilterIndex(new SimpleMeterRegistry());
+        String[] areas = {"大关", "拱宸桥", "西湖", "滨江"};
+        for (long id = 1; id <= 3000; id++) {
+            Shop shop = shop(id, 1L + random.nextInt(5), areas[random.nextInt(areas.length)],
+                    (long) random.nextInt(800), 30 + random.nextInt(20));
+            shops.add(shop);
+            index.upsert(shop);
+        }
+        List<Long> typeIds = Arrays.asList(1L, 3L);
+        List<String> areaNames = Arrays.asList("西湖", "滨江");
+        List<Integer> bands = Arrays.asList(1, 2);
+        int minScore = 40;
+        List<Long> expected = shops.stream()
+                .filter(s -> typeIds.contains(s.getTypeId()))
+                .filter(s -> areaNames.contains(s.getArea()))
+                .filter(s -> bands.contains(ShopFilterIndex.priceBand(s.getAvgPrice())))
+                .filter(s -> s.getScore() >= minScore)
+                .map(Shop::getId)
+                .collect(Collectors.toList());
+        // 按id游标翻页，拼起来和全量结果一致
+        List<Long> actual = new ArrayList<>();
+        long afterId = 0;
+        while (true) {
+            List<Long> page = index.filter(typeIds, areaNames, bands, minScore, afterId, 10);
+            if (page.isEmpty()) {
+                break;
+            }
+            actual.addAll(page);
+            afterId = page.get(page.size() - 1);
+        }
+        assertTrue(expected.size() > 10);
+        assertEquals(expected, actual);
+    }
+
+    private List<Long> filter(List<Long> typeIds, List<String> areas, List<Integer> bands, Integer minScore) {
+        return index.filter(typeIds, areas, bands, minScore, 0, 100);
+    }
+
+    private static Shop shop(Long id, Long typeId, String area, Long avgPrice, int score) {
+        return new Shop().setId(id).setTypeId(typeId).setArea(area).setAvgPrice(avgPrice).setScore(score);
+    }
+}
@@ -0,0 +1,83 @@
+package com.hmdp.index;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopNameIndexTest {
+
+    private ShopNameIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopNameIndex(new SimpleMeterRegistry());
+        index.upsert(shop(1L, "海底捞火锅", "大关", 47));
+        index.upsert(shop(2L, "小龙坎老火锅", "拱宸桥", 45));
+        index.upsert(shop(3L, "火锅", "运河上街", 40));
+        index.upsert(shop(4L, "开乐迪KTV", "运河上街", 46));
+        index.upsert(shop(5L, "海底捞", "西湖", 49));
+    }
+
+    @Test
+    void testRankByMatchQuality() {
+        // 名称相同 > 名称前缀 > 名称包含，同档按评分
+        assertEquals(Arrays.asList(3L, 1L, 2L), index.search("火锅", 10));
+        assertEquals(Arrays.asList(5L, 1L), index.search("海底捞", 10));
+    }
+
+    @Test
+    void testMatchArea() {
+        assertEquals(Arrays.asList(4L, 3L), index.search("运河上街", 10));
+    }
+
+    @Test
+    void testNormalize() {
+        assertEquals(Collections.singletonList(4L), index.search(" ktv ", 10));
+    }
+
+    @Test
+    void testLimit() {
+        assertEquals(Collections.singletonList(3L), index.search("火锅", 1));
+        assertTrue(index.search("火锅", 0).isEmpty());
+        assertTrue(index.search("", 10).isEmpty());
+        assertTrue(index.search("不存在的店", 10).isEmpty());
+    }
+
+    @Test
+    void testUpdateAndRemove() {
+        index.upsert(shop(3L, "烤肉", "运河上街", 40));
+        assertEquals(Arrays.asList(1L, 2L), index.search("火锅", 10));
+        assertEquals(Collections.singletonList(3L), index.search("烤肉", 10));
+
+        index.remove(1L);
+        assertEquals(Collections.singletonList(2L), index.search("火锅", 10));
+        assertEquals(Collections.singletonList(5L), index.search("海底捞", 10));
+
+        int terms = index.terms();
+        index.remove(2L);
+        index.remove(5L);
+        assertTrue(index.search("火锅", 10).isEmpty());
+        // 删空的词项不再保留
+        assertTrue(index.terms() < terms);
+    }
+
+    @Test
+    void testOutOfOrderInsert() {
+        // 比已有id小的商铺，插入到倒排列表中间
+        index.upsert(shop(0L, "老火锅", "大关", 30));
+        assertEquals(Arrays.asList(3L, 1L, 2L, 0L), index.search("火锅", 10));
+        index.trim();
+        assertEquals(Arrays.asList(3L, 1L, 2L, 0L), index.search("火锅", 10));
+    }
+
+    static Shop shop(Long id, String name, String area, int score) {
+        return new Shop().setId(id).setName(name).setArea(area).setScore(score);
+    }
+}
@@ -0,0 +1,115 @@
+package com.hmdp.index;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopSpatialIndexTest {
+
+    private static final double X = 120.15;
+    private static final double Y = 30.25;
+
+    private ShopSpatialIndex index;
+    private List<Shop> shops;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopSpatialIndex(new SimpleMeterRegistry());
+        shops = new ArrayList<>();
+        Random random = new Random(7);
+        for (long id = 1; id <= 2000; id++) {
+            // 查询点附近约 ±10km 的范围，两个类型
+            Shop shop = new Shop().setId(id).setTypeId(id % 2 + 1)
+                    .setX(X + (random.nextDouble() - 0.5) * 0.2)
+                    .setY(Y + (random.nextDouble() - 0.5) * 0.2);
+            shops.add(shop);
+            index.upsert(shop);
+        }
+    }
+
+    @Test
+    void testNearestMatchesBruteForce() {
+        // k来自页码，很大时也不能按k分配内存
+        for (int k : new int[]{1, 10, 50, 500, Integer.MAX_VALUE}) {
+            for (double radius : new double[]{500, 3000, 5000}) {
+                assertEquals(bruteForce(1L, X, Y, radius, k), ids(index.nearest(1L, X, Y, k, radius)),
+                        "k=" + k + ", radius=" + radius);
+            }
+        }
+    }
+
+    @Test
+    void testWithinRadiusMatchesBruteForce() {
+        for (double radius : new double[]{500, 3000, 5000}) {
+            assertEquals(bruteForce(2L, X, Y, radius, Integer.MAX_VALUE),
+                    ids(index.withinRadius(2L, X, Y, radius)), "radius=" + radius);
+        }
+    }
+
+    @Test
+    void testSortedByDistance() {
+        List<ShopDistance> result = index.nearest(1L, X, Y, 100, 5000);
+        for (int i = 1; i < result.size(); i++) {
+            assertTrue(result.get(i - 1).getDistance() <= result.get(i).getDistance());
+        }
+    }
+
+    @Test
+    void testUpdateAndRemove() {
+        Shop moved = shops.get(0).setX(X).setY(Y);
+        index.upsert(moved);
+        assertEquals(moved.getId(), index.nearest(moved.getTypeId(), X, Y, 1, 100).get(0).getShopId());
+
+        // 类型变化后只在新类型中出现
+        Long oldType = moved.getTypeId();
+        Long newType = oldType == 1L ? 2L : 1L;
+        index.upsert(moved.setTypeId(newType));
+        assertEquals(moved.getId(), index.nearest(newType, X, Y, 1, 100).get(0).getShopId());
+        assertTrue(index.nearest(oldType, X, Y, 10, 5000).stream()
+                .noneMatch(d -> d.getShopId().equals(moved.getId())));
+
+        index.remove(moved.getId());
+        assertEquals(shops.size() - 1, index.size());
+        assertTrue(index.withinRadius(newType, X, Y, 100).stream()
+                .noneMatch(d -> d.getShopId().equals(moved.getId())));
+
+        // 没有坐标的商铺从索引中删除
+        Shop noLocation = shops.get(1).setX(null);
+        index.upsert(noLocation);
+        assertEquals(shops.size() - 2, index.size());
+    }
+
+    @Test
+    void testEmpty() {
+        assertTrue(index.nearest(99L, X, Y, 10, 5000).isEmpty());
+        assertTrue(index.nearest(1L, X, Y, 0, 5000).isEmpty());
+        assertTrue(index.withinRadius(99L, X, Y, 5000).isEmpty());
+        // 很远的地方
+        assertTrue(index.nearest(1L, 0, 0, 10, 5000).isEmpty());
+    }
+
+    private List<Long> bruteForce(Long typeId, double x, double y, double radius, int k) {
+        return shops.stream()
+                .filter(shop -> shop.getTypeId().equals(typeId))
+                .map(shop -> new ShopDistance(shop.getId(), ShopSpatialIndex.distance(x, y, shop.getX(), shop.getY())))
+                .filter(d -> d.getDistance() <= radius)
+                .sorted(Comparator.comparingDouble(ShopDistance::getDistance))
+                .limit(k)
+                .map(ShopDistance::getShopId)
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<ShopDistance> result) {
+        return result.stream().map(ShopDistance::getShopId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,95 @@
+package com.hmdp.index;
+
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopSuggestIndexTest {
+
+    private ShopSuggestIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopSuggestIndex(new SimpleMeterRegistry());
+        index.upsert(shop(1L, "海底捞火锅", 3000, 47));
+        index.upsert(shop(2L, "海底捞", 5000, 49));
+        index.upsert(shop(3L, "海鲜大排档", 3000, 48));
+        index.upsert(shop(4L, "好多鱼", 100, 40));
+    }
+
+    @Test
+    void testPrefixRankBySoldThenScore() {
+        assertEquals(Arrays.asList(2L, 3L, 1L), ids(index.suggest("海", 10)));
+        assertEquals(Arrays.asList(2L, 1L), ids(index.suggest("海底", 10)));
+        assertEquals(Collections.singletonList(1L), ids(index.suggest("海底捞火", 10)));
+        assertEquals(Collections.singletonList(2L), ids(index.suggest("海", 1)));
+    }
+
+    @Test
+    void testPinyinInitials() {
+        // 海底捞 -> hdl，好多鱼 -> hdy
+        assertEquals(Arrays.asList(2L, 1L, 4L), ids(index.suggest("hd", 10)));
+        assertEquals(Arrays.asList(2L, 1L), ids(index.suggest("HDL", 10)));
+        assertEquals(Collections.singletonList(4L), ids(index.suggest("hdy", 10)));
+    }
+
+    @Test
+    void testNoMatch() {
+        assertTrue(index.suggest("烤", 10).isEmpty());
+        assertTrue(index.suggest("", 10).isEmpty());
+        assertTrue(index.suggest("海", 0).isEmpty());
+    }
+
+    @Test
+    void testUpdateAndRemove() {
+        // 销量变化后排名变化
+        index.upsert(shop(1L, "海底捞火锅", 9000, 47));
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(index.suggest("海", 10)));
+
+        // 改名后旧名称不再联想出来
+        index.upsert(shop(3L, "渔夫码头", 3000, 48));
+        assertEquals(Arrays.asList(1L, 2L), ids(index.suggest("海", 10)));
+        assertEquals(Collections.singletonList(3L), ids(index.suggest("渔", 10)));
+
+        int nodes = index.nodes();
+        index.remove(1L);
+        assertEquals(Collections.singletonList(2L), ids(index.suggest("海", 10)));
+        assertTrue(index.suggest("海底捞火", 10).isEmpty());
+        // 只属于该商铺的节点被删除
+        assertTrue(index.nodes() < nodes);
+    }
+
+    @Test
+    void testTopN() {
+        for (long id = 100; id < 130; id++) {
+            index.upsert(shop(id, "海" + id, (int) id, 40));
+        }
+        List<Long> top = ids(index.suggest("海", 100));
+        assertEquals(ShopSuggestIndex.TOP_N, top.size());
+        assertEquals(Arrays.asList(2L, 3L, 1L, 129L, 128L), top.subList(0, 5));
+
+        // 删除前N名中的商铺后，由子节点补上
+        index.remove(2L);
+        top = ids(index.suggest("海", 100));
+        assertEquals(ShopSuggestIndex.TOP_N, top.size());
+        assertEquals(Arrays.asList(3L, 1L, 129L), top.subList(0, 3));
+        assertEquals(122L, (long) top.get(ShopSuggestIndex.TOP_N - 1));
+    }
+
+    private static Shop shop(Long id, String name, int sold, int score) {
+        return new Shop().setId(id).setName(name).setSold(sold).setScore(score);
+    }
+
+    private static List<Long> ids(List<ShopSuggestion> suggestions) {
+        return suggestions.stream().map(ShopSuggestion::getId).collect(Collectors.toList());
+    }
+}
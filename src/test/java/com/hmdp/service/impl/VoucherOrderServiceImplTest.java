@@ -0,0 +1,172 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.index.ShopFilterIndex;
+import com.hmdp.index.ShopIndexManager;
+import com.hmdp.index.ShopNameIndex;
+import com.hmdp.index.ShopSpatialIndex;
+import com.hmdp.index.ShopSuggestIndex;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+
+import static com.hmdp.utils.RedisConstants.SHOP_RANK_SOLD_KEY;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 通过事务代理下单：销量在下单事务中累加，事务提交后更新销量排行榜
+ */
+@SpringJUnitConfig(VoucherOrderServiceImplTest.Config.class)
+class VoucherOrderServiceImplTest {
+
+    private static final Long VOUCHER_ID = 10L;
+    private static final Long SHOP_ID = 1L;
+    private static final Long TYPE_ID = 2L;
+
+    @Configuration
+    @EnableTransactionManagement(proxyTargetClass = true)
+    @EnableAspectJAutoProxy(proxyTargetClass = true, exposeProxy = true)
+    @Import({VoucherOrderServiceImpl.class, ShopServiceImpl.class, SeckillVoucherServiceImpl.class,
+            RedisCircuitBreaker.class})
+    static class Config {
+        @Bean
+        PlatformTransactionManager transactionManager() {
+            return new NoOpTransactionManager();
+        }
+    }
+
+    @Autowired
+    private IVoucherOrderService voucherOrderService;
+
+    @MockBean
+    private VoucherOrderMapper voucherOrderMapper;
+    @MockBean
+    private SeckillVoucherMapper seckillVoucherMapper;
+    @MockBean
+    private ShopMapper shopMapper;
+    @MockBean
+    private IVoucherService voucherService;
+    @MockBean
+    private RedisIdWorker redisIdWorker;
+    @MockBean
+    private StringRedisTemplate stringRedisTemplate;
+    @MockBean
+    private CacheClient cacheClient;
+    @MockBean
+    private ShopSpatialIndex shopSpatialIndex;
+    @MockBean
+    private ShopIndexManager shopIndexManager;
+    @MockBean
+    private ShopNameIndex shopNameIndex;
+    @MockBean
+    private ShopSuggestIndex shopSuggestIndex;
+    @MockBean
+    private ShopFilterIndex shopFilterIndex;
+
+    @BeforeEach
+    void setUp() {
+        UserDTO user = new UserDTO();
+        user.setId(100L);
+        UserHolder.saveUser(user);
+        Voucher voucher = new Voucher();
+        voucher.setId(VOUCHER_ID);
+        voucher.setShopId(SHOP_ID);
+        when(voucherService.getById(VOUCHER_ID)).thenReturn(voucher);
+        when(seckillVoucherMapper.update(any(), any())).thenReturn(1);
+        when(voucherOrderMapper.insert(any())).thenReturn(1);
+        when(shopMapper.update(any(), any())).thenReturn(1);
+        when(shopMapper.selectById(SHOP_ID)).thenReturn(new Shop().setId(SHOP_ID).setTypeId(TYPE_ID));
+        when(redisIdWorker.nextId("order")).thenReturn(1000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCreateOrderIncrementsSoldRankAfterCommit() {
+        Result result = voucherOrderService.createOrder(VOUCHER_ID);
+
+        assertTrue(result.getSuccess());
+        verify(shopMapper).update(any(), any());
+        verify(stringRedisTemplate).execute(any(RedisScript.class),
+                eq(Collections.singletonList(SHOP_RANK_SOLD_KEY + TYPE_ID)), eq("incr"), eq(SHOP_ID.toString()), eq("1"));
+        // 联想按销量排序，销量变化通知内存索引
+        verify(shopIndexManager).onShopSold(SHOP_ID);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRedisFailureAfterCommitDoesNotFailOrder() {
+        when(stringRedisTemplate.execute(any(RedisScript.class), any(), anyString(), anyString(), anyString()))
+                .thenThrow(new RedisConnectionFailureException("down"));
+
+        Result result = voucherOrderService.createOrder(VOUCHER_ID);
+
+        assertTrue(result.getSuccess());
+    }
+
+    /**
+     * 不连数据库的事务管理器，只负责事务同步回调（afterCommit）
+     */
+    static class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected boolean isExistingTransaction(Object transaction) {
+            return TransactionSynchronizationManager.isActualTransactionActive();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CacheInvalidatorTest {
+
+    private static final String KEY = "cache:shop:1";
+    private static final String VALIDATOR_KEY = KEY + ":validator";
+
+    /**
+     * 模拟Redis中的key
+     */
+    private final Set<String> redis = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean redisDown = new AtomicBoolean();
+
+    private RedisCircuitBreaker breaker;
+    private CacheInvalidator invalidator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        StringRedisConnection connection = (StringRedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{StringRedisConnection.class}, (proxy, method, args) -> {
+                    if ("del".equals(method.getName()) && args[0] instanceof String[]) {
+                        for (String key : (String[]) args[0]) {
+                            redis.remove(key);
+                        }
+                    }
+                    return null;
+                });
+        when(template.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            if (redisDown.get()) {
+                throw new RedisConnectionFailureException("Redis不可用");
+            }
+            invocation.<RedisCallback<Object>>getArgument(0).doInRedis(connection);
+            return Collections.emptyList();
+        });
+        breaker = new RedisCircuitBreaker();
+        CacheClient cacheClient = new CacheClient(template, breaker, mock(CacheMetrics.class),
+                mock(HotKeyDetector.class), mock(CacheRebuildScheduler.class));
+        invalidator = new CacheInvalidator(cacheClient, template, breaker, 0);
+        redis.add(KEY);
+        redis.add(VALIDATOR_KEY);
+    }
+
+    @AfterEach
+    void tearDown() {
+        invalidator.shutdown();
+    }
+
+    @Test
+    void testEvictRetriedAfterBreakerCloses() throws InterruptedException {
+        // 1.Redis故障，删除连续失败，熔断器打开
+        redisDown.set(true);
+        invalidator.evict(KEY);
+        waitUntil(() -> breaker.getState() == RedisCircuitBreaker.State.OPEN, 2000);
+        assertTrue(redis.contains(KEY));
+
+        // 2.Redis恢复，冷却后半开探测成功，熔断器关闭，待删除的key被删除
+        redisDown.set(false);
+        waitUntil(() -> breaker.getState() == RedisCircuitBreaker.State.CLOSED && redis.isEmpty(), 10000);
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.getState());
+        assertFalse(redis.contains(KEY));
+        assertFalse(redis.contains(VALIDATOR_KEY));
+    }
+
+    private static void waitUntil(BooleanSupplier condition, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountMinSketchTest {
+
+    @Test
+    void testExactForSingleKey() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(i, sketch.increment("cache:shop:1"));
+        }
+        assertEquals(100, sketch.estimate("cache:shop:1"));
+        assertEquals(0, sketch.estimate("cache:shop:2"));
+    }
+
+    @Test
+    void testNeverUnderestimates() {
+        // 宽度远小于key的个数，一定有冲突
+        CountMinSketch sketch = new CountMinSketch(4, 64);
+        Map<String, Integer> actual = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String key = "cache:shop:" + (i % 500);
+            sketch.increment(key);
+            actual.merge(key, 1, Integer::sum);
+        }
+        actual.forEach((key, count) -> assertTrue(sketch.estimate(key) >= count, key));
+    }
+
+    @Test
+    void testHotKeyStandsOut() {
+        CountMinSketch sketch = new CountMinSketch(4, 4096);
+        for (int i = 0; i < 10000; i++) {
+            sketch.increment("cache:shop:" + i);
+        }
+        for (int i = 0; i < 5000; i++) {
+            sketch.increment("cache:shop:hot");
+        }
+        assertTrue(sketch.estimate("cache:shop:hot") >= 5000);
+        assertTrue(sketch.estimate("cache:shop:42") < 100);
+    }
+
+    @Test
+    void testDecayHalvesCounts() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        for (int i = 0; i < 9; i++) {
+            sketch.increment("a");
+        }
+        sketch.decay();
+        assertEquals(4, sketch.estimate("a"));
+        sketch.decay();
+        sketch.decay();
+        sketch.decay();
+        assertEquals(0, sketch.estimate("a"));
+    }
+
+    @Test
+    void testConcurrentIncrement() throws InterruptedException {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        int threads = 8;
+        int perThread = 10000;
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            es.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    sketch.increment("cache:shop:1");
+                }
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        es.shutdown();
+        assertEquals(threads * perThread, sketch.estimate("cache:shop:1"));
+    }
+}